@@ -0,0 +1,218 @@
+package com.example;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects connection pool telemetry from Hikari: how long threads wait to get a connection
+ * (as a histogram), how long connections are held, timeouts, and the pool's current state.
+ * From these it recommends a pool size.
+ *
+ * For the recommendation, each use of a connection is timed in nanoseconds, from asking for it (so
+ * including the wait for it) until it is given back. Hikari only reports hold times in whole
+ * milliseconds, which rounds the typical sub-millisecond query down to nothing, so the tracker
+ * notes when each connection was asked for (Hikari reports the acquire on the borrowing thread) and
+ * times the use when the same thread gives it back. A connection given back on another thread falls
+ * back to Hikari's milliseconds. Everything comes through the tracker, so the data source itself is
+ * neither wrapped nor slowed down. The times are summed per second over a sliding window of recent seconds.
+ */
+public class ConnectionPoolTelemetry implements MetricsTrackerFactory {
+
+    // bucket i counts samples of up to 2^i microseconds; the last bucket takes everything above
+    private static final int BUCKETS = 25;
+    private static final long SECOND_NANOS = 1_000_000_000L;
+    private static final int MAX_HELD_PER_THREAD = 16;
+
+    private final AtomicLongArray acquireHistogram = new AtomicLongArray(BUCKETS);
+    private final LongAdder acquireCount = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final LongAdder usageCount = new LongAdder();
+    private final LongAdder usageMillis = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+    private final long startedAt = System.nanoTime();
+    private volatile PoolStats poolStats;
+    // System.nanoTime() when each connection the thread holds was asked for, latest last
+    private final ThreadLocal<Deque<Long>> requestedAt = ThreadLocal.withInitial(ArrayDeque::new);
+
+    // per second of the window: which second the slot holds, and the nanos connections were demanded in it
+    private final AtomicLongArray windowSeconds;
+    private final AtomicLongArray windowDemandNanos;
+
+    /**
+     * @param windowSeconds how many recent seconds the pool size recommendation is based on
+     */
+    public ConnectionPoolTelemetry(int windowSeconds) {
+        this.windowSeconds = new AtomicLongArray(windowSeconds);
+        this.windowDemandNanos = new AtomicLongArray(windowSeconds);
+        for (int i = 0; i < windowSeconds; i++) {
+            this.windowSeconds.set(i, -1);
+        }
+    }
+
+    /**
+     * Adds a connection's time from being asked for until given back to the second it ended in.
+     * @param demandNanos
+     * @param now current System.nanoTime()
+     */
+    void recordDemand(long demandNanos, long now) {
+        long second = (now - startedAt) / SECOND_NANOS;
+        int slot = (int) (second % windowSeconds.length());
+        if (windowSeconds.get(slot) != second) {
+            synchronized (windowSeconds) {
+                if (windowSeconds.get(slot) != second) {
+                    windowDemandNanos.set(slot, 0);
+                    windowSeconds.set(slot, second);
+                }
+            }
+        }
+        windowDemandNanos.addAndGet(slot, demandNanos);
+    }
+
+    /**
+     * By Little's law, the connections in demand on average: the time they were demanded in total over the window's length.
+     * @param now current System.nanoTime()
+     * @return average number of connections in use or waited for over the window
+     */
+    double averageDemand(long now) {
+        long second = (now - startedAt) / SECOND_NANOS;
+        long totalNanos = 0;
+        for (int i = 0; i < windowSeconds.length(); i++) {
+            long slotSecond = windowSeconds.get(i);
+            if (slotSecond >= 0 && second - slotSecond < windowSeconds.length()) {
+                totalNanos += windowDemandNanos.get(i);
+            }
+        }
+        // a window that hasn't filled up yet only covers the time since startup
+        double windowNanos = Math.max(Math.min(now - startedAt, (long) windowSeconds.length() * SECOND_NANOS), SECOND_NANOS);
+        return totalNanos / windowNanos;
+    }
+
+    @Override
+    public IMetricsTracker create(String poolName, PoolStats poolStats) {
+        this.poolStats = poolStats;
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                Deque<Long> held = requestedAt.get();
+                if (held.size() == MAX_HELD_PER_THREAD) {
+                    // connections given back on other threads leave their entry behind
+                    held.pollFirst();
+                }
+                held.addLast(System.nanoTime() - elapsedAcquiredNanos);
+                acquireCount.increment();
+                acquireNanos.add(elapsedAcquiredNanos);
+                acquireHistogram.incrementAndGet(bucketOf(elapsedAcquiredNanos / 1000));
+            }
+
+            @Override
+            public void recordConnectionUsageMillis(long elapsedBorrowedMillis) {
+                usageCount.increment();
+                usageMillis.add(elapsedBorrowedMillis);
+                long now = System.nanoTime();
+                // which of the thread's connections this was doesn't change the sum of their times
+                Long requested = requestedAt.get().pollLast();
+                recordDemand(requested != null ? now - requested : elapsedBorrowedMillis * 1_000_000L, now);
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                timeouts.increment();
+            }
+        };
+    }
+
+    /**
+     * Estimates a connection acquire wait percentile from the histogram.
+     * @param percentile between 0 and 100
+     * @return upper bound of the bucket holding the percentile, in microseconds
+     */
+    public long acquirePercentileMicros(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += acquireHistogram.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += acquireHistogram.get(i);
+            if (seen >= rank) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+
+    /**
+     * Recommends a pool size from the recent window, using Little's law: the number of connections
+     * in demand on average is the rate they are asked for times how long each is waited for and held.
+     * 50% headroom is added for bursts, and more if threads are already queueing for connections.
+     * @param currentMax the pool's current maximum size
+     * @return recommended maximum pool size
+     */
+    public int recommendPoolSize(int currentMax) {
+        if (usageCount.sum() == 0) {
+            return currentMax;
+        }
+        double busy = averageDemand(System.nanoTime());
+
+        double headroom = 1.5;
+        // threads waiting more than a millisecond for a connection at p99 means the pool is a bottleneck
+        if (acquirePercentileMicros(99) > 1000 || timeouts.sum() > 0) {
+            headroom = 2.0;
+        }
+        return Math.max(2, (int) Math.ceil(busy * headroom));
+    }
+
+    /**
+     * @return a snapshot of all collected telemetry, for reporting
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        PoolStats pool = this.poolStats;
+        if (pool != null) {
+            stats.put("totalConnections", pool.getTotalConnections());
+            stats.put("activeConnections", pool.getActiveConnections());
+            stats.put("idleConnections", pool.getIdleConnections());
+            stats.put("pendingThreads", pool.getPendingThreads());
+            stats.put("maxConnections", pool.getMaxConnections());
+        }
+        long acquires = acquireCount.sum();
+        stats.put("acquireCount", acquires);
+        stats.put("acquireMeanMicros", acquires == 0 ? 0 : acquireNanos.sum() / acquires / 1000);
+        stats.put("acquireP50Micros", acquirePercentileMicros(50));
+        stats.put("acquireP99Micros", acquirePercentileMicros(99));
+        long borrows = usageCount.sum();
+        stats.put("usageMeanMillis", borrows == 0 ? 0 : usageMillis.sum() / borrows);
+        stats.put("averageDemandedConnections", averageDemand(System.nanoTime()));
+        stats.put("timeouts", timeouts.sum());
+
+        Map<String, Long> histogram = new LinkedHashMap<>();
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = acquireHistogram.get(i);
+            if (count > 0) {
+                histogram.put("le" + (1L << i) + "us", count);
+            }
+        }
+        stats.put("acquireHistogram", histogram);
+        if (pool != null) {
+            stats.put("recommendedMaxConnections", recommendPoolSize(pool.getMaxConnections()));
+        }
+        return stats;
+    }
+
+    private static int bucketOf(long micros) {
+        int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+}
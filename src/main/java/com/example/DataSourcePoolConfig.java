@@ -0,0 +1,39 @@
+package com.example;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Hooks connection pool telemetry into the Hikari data source. Pool sizing, leak detection and
+ * timeouts are plain spring.datasource.hikari.* settings in application.properties.
+ */
+@Configuration
+public class DataSourcePoolConfig {
+
+    @Bean
+    public ConnectionPoolTelemetry connectionPoolTelemetry(@Value("${app.datasource.telemetry.window-seconds:60}") int windowSeconds) {
+        return new ConnectionPoolTelemetry(windowSeconds);
+    }
+
+    /**
+     * Registers the telemetry on the data source before its pool is started. The data source itself
+     * is left as it is.
+     */
+    @Bean
+    static BeanPostProcessor hikariTelemetryPostProcessor(ObjectProvider<ConnectionPoolTelemetry> telemetry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (bean instanceof HikariDataSource) {
+                    ((HikariDataSource) bean).setMetricsTrackerFactory(telemetry.getObject());
+                }
+                return bean;
+            }
+        };
+    }
+}
@@ -0,0 +1,29 @@
+package com.example;
+
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.boot.jdbc.init.DataSourceScriptDatabaseInitializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+/**
+ * Settings for the faststart profile that can't be expressed as properties.
+ *
+ * Beans with @Scheduled methods (the purge, the outbox relay, the event log's fsync...) are still
+ * created at startup, so their jobs run without a request asking for them first: Spring Boot
+ * excludes them from lazy initialization itself (ScheduledBeanLazyInitializationExcludeFilter, as
+ * long as SchedulingConfig enables scheduling), and SmartLifecycle beans are started by the context.
+ */
+@Configuration
+@Profile("faststart")
+public class FastStartConfig {
+
+    /**
+     * data.sql must still run at startup even though beans are created lazily, otherwise
+     * nothing would ever ask for the initializer and the tables would never be set up.
+     */
+    @Bean
+    static LazyInitializationExcludeFilter eagerDatabaseInitialization() {
+        return LazyInitializationExcludeFilter.forBeanTypes(DataSourceScriptDatabaseInitializer.class);
+    }
+}
@@ -0,0 +1,61 @@
+package com.example;
+
+import com.github.benmanes.caffeine.jcache.configuration.CaffeineConfiguration;
+import org.hibernate.cache.jcache.ConfigSettings;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.cache.CacheManager;
+import javax.cache.Caching;
+import java.util.OptionalLong;
+
+/**
+ * Sets up the caches behind Hibernate's second-level and query cache. Every region is created
+ * here with its own size bound, and Hibernate is told to fail rather than silently create an
+ * unbounded cache for a region that isn't listed.
+ *
+ * Every entity is cached unless it opts out with @Cacheable(false) (see the shared cache mode in
+ * application.properties). Queries are cached with query hints on the repositories.
+ */
+@Configuration
+public class HibernateCacheConfig {
+
+    public static final String ACCOUNT_BY_USERNAME_REGION = "account-by-username";
+    public static final String MESSAGES_BY_POSTED_BY_REGION = "messages-by-postedBy";
+
+    /**
+     * The cache manager is closed with the app so that a restarted app in the same JVM
+     * gets new, empty caches instead of the previous app's entries.
+     */
+    @Bean(destroyMethod = "close")
+    public CacheManager hibernateCacheManager(@Value("${app.cache.account.max-entries:10000}") long accountEntries,
+                                              @Value("${app.cache.message.max-entries:10000}") long messageEntries,
+                                              @Value("${app.cache.query.max-entries:1000}") long queryEntries) {
+        CacheManager cacheManager = Caching.getCachingProvider(
+                "com.github.benmanes.caffeine.jcache.spi.CaffeineCachingProvider").getCacheManager();
+        cacheManager.createCache("com.example.entity.Account", bounded(accountEntries));
+        cacheManager.createCache("com.example.entity.Message", bounded(messageEntries));
+        cacheManager.createCache(ACCOUNT_BY_USERNAME_REGION, bounded(queryEntries));
+        cacheManager.createCache(MESSAGES_BY_POSTED_BY_REGION, bounded(queryEntries));
+        cacheManager.createCache("default-query-results-region", bounded(queryEntries));
+        // when each table last changed. Evicting these would let stale query results through.
+        cacheManager.createCache("default-update-timestamps-region", new CaffeineConfiguration<>());
+        return cacheManager;
+    }
+
+    @Bean
+    public HibernatePropertiesCustomizer hibernateCacheCustomizer(CacheManager hibernateCacheManager) {
+        return properties -> {
+            properties.put(ConfigSettings.CACHE_MANAGER, hibernateCacheManager);
+            properties.put(ConfigSettings.MISSING_CACHE_STRATEGY, "fail");
+        };
+    }
+
+    private static CaffeineConfiguration<Object, Object> bounded(long maxEntries) {
+        CaffeineConfiguration<Object, Object> config = new CaffeineConfiguration<>();
+        config.setMaximumSize(OptionalLong.of(maxEntries));
+        return config;
+    }
+}
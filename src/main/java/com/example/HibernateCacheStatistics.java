@@ -0,0 +1,50 @@
+package com.example;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.CacheRegionStatistics;
+import org.hibernate.stat.Statistics;
+import org.springframework.stereotype.Component;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reports hit, miss and put counts of the Hibernate second-level and query cache regions.
+ */
+@Component
+public class HibernateCacheStatistics {
+
+    private final Statistics statistics;
+
+    public HibernateCacheStatistics(EntityManagerFactory emf) {
+        this.statistics = emf.unwrap(SessionFactory.class).getStatistics();
+    }
+
+    /**
+     * @return region name -> hits, misses and puts
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (String region : new String[] {"com.example.entity.Account", "com.example.entity.Message"}) {
+            stats.put(region, regionStats(statistics.getDomainDataRegionStatistics(region)));
+        }
+        for (String region : new String[] {HibernateCacheConfig.ACCOUNT_BY_USERNAME_REGION,
+                HibernateCacheConfig.MESSAGES_BY_POSTED_BY_REGION}) {
+            // query regions only exist once their query has run
+            CacheRegionStatistics regionStats = statistics.getQueryRegionStatistics(region);
+            if (regionStats != null) {
+                stats.put(region, regionStats(regionStats));
+            }
+        }
+        return stats;
+    }
+
+    private static Map<String, Long> regionStats(CacheRegionStatistics region) {
+        Map<String, Long> stats = new LinkedHashMap<>();
+        stats.put("hits", region.getHitCount());
+        stats.put("misses", region.getMissCount());
+        stats.put("puts", region.getPutCount());
+        return stats;
+    }
+}
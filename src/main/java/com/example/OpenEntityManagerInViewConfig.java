@@ -0,0 +1,42 @@
+package com.example;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.orm.jpa.support.OpenEntityManagerInViewInterceptor;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Open EntityManager in View, as Spring Boot would register it (spring.jpa.open-in-view), except
+ * for POST /messages/import. Once a request's EntityManager has used a connection it holds it until
+ * the request ends, and an import reads its body as slowly as the client uploads it; so the import
+ * saves each chunk with an EntityManager of its own that gives the connection back after the commit.
+ *
+ * Defining the interceptor here keeps Spring Boot from registering its own for every path.
+ */
+@Configuration
+@ConditionalOnProperty(prefix = "spring.jpa", name = "open-in-view", havingValue = "true", matchIfMissing = true)
+public class OpenEntityManagerInViewConfig implements WebMvcConfigurer {
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    public OpenEntityManagerInViewConfig(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    @Bean
+    public OpenEntityManagerInViewInterceptor openEntityManagerInViewInterceptor() {
+        OpenEntityManagerInViewInterceptor interceptor = new OpenEntityManagerInViewInterceptor();
+        interceptor.setEntityManagerFactory(this.entityManagerFactory);
+        return interceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addWebRequestInterceptor(this.openEntityManagerInViewInterceptor())
+                .excludePathPatterns("/messages/import");
+    }
+}
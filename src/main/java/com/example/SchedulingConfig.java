@@ -0,0 +1,12 @@
+package com.example;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * Turns on Spring's @Scheduled support for the app's background jobs.
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -0,0 +1,72 @@
+package com.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reports how long the app took to become ready for its first request.
+ *
+ * With app.startup.exit-after-ready the app shuts down right after reporting, which is used by the
+ * appcds build profile both to train the class data sharing archive and to measure startup time.
+ * With app.startup.report-file the time is also appended to that file so runs can be compared.
+ */
+@Component
+public class StartupReporter {
+
+    private static final Logger log = LoggerFactory.getLogger(StartupReporter.class);
+
+    private final boolean exitAfterReady;
+    private final String reportFile;
+
+    public StartupReporter(@Value("${app.startup.exit-after-ready:false}") boolean exitAfterReady,
+                           @Value("${app.startup.report-file:}") String reportFile) {
+        this.exitAfterReady = exitAfterReady;
+        this.reportFile = reportFile;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    public void onReady(ApplicationReadyEvent event) throws IOException {
+        long uptimeMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        log.info("Ready for requests {} ms after JVM start", uptimeMillis);
+
+        if (!reportFile.isEmpty()) {
+            Path report = Paths.get(reportFile);
+            if (report.getParent() != null) {
+                Files.createDirectories(report.getParent());
+            }
+            String profiles = String.join(",", event.getApplicationContext().getEnvironment().getActiveProfiles());
+            Files.write(report, (uptimeMillis + " ms [" + profiles + "]\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        }
+
+        if (exitAfterReady) {
+            // exit from another thread once startup has fully returned, the context can't be closed
+            // while it is still delivering this event to other listeners
+            Thread starter = Thread.currentThread();
+            new Thread(() -> {
+                try {
+                    starter.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                System.exit(SpringApplication.exit(event.getApplicationContext()));
+            }, "startup-exit").start();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Sheds load when the app is overloaded instead of letting requests queue up on the database.
+ *
+ * The filter caps how many requests may be in flight at once. The cap adapts to observed latency
+ * (AIMD): every request that finishes within the latency target grows the cap a little, and a slow
+ * one shrinks it by a fixed factor, at most once per backoff window: the other slow requests of the
+ * same overload were slowed by the same cause and don't shrink it again. The cap is updated with
+ * compare-and-set, so finishing requests never queue on a lock. Requests over the cap are
+ * rejected right away with 503 (SERVICE UNAVAILABLE) and a Retry-After header.
+ *
+ * Bulk imports take a slot but aren't measured, since their latency depends on the size of the
+ * upload rather than on how loaded the app is. The live stream isn't limited at all.
+ *
+ * Endpoints don't share the cap equally. Bulk list reads may only use part of it, so they are shed
+ * first, while /login and GET /messages/{id} may use all of it.
+ */
+@Component
+@Order(2)
+public class AdmissionControlFilter extends OncePerRequestFilter {
+
+    // GET /messages/{messageId}
+    private static final Pattern SINGLE_MESSAGE = Pattern.compile("/messages/\\d+");
+    private static final long NEVER = Long.MIN_VALUE;
+
+    enum Priority {
+        // share of the concurrency limit each priority may use
+        HIGH(1.0), NORMAL(0.8), LOW(0.5);
+
+        final double share;
+
+        Priority(double share) {
+            this.share = share;
+        }
+    }
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final boolean enabled;
+    private final long latencyTargetNanos;
+    private final double minLimit;
+    private final double maxLimit;
+    private final double backoff;
+    private final long backoffWindowNanos;
+
+    // bits of the current concurrency limit, a double
+    private final AtomicLong limitBits = new AtomicLong();
+    // System.nanoTime() of the last backoff. NEVER before the first one.
+    private final AtomicLong lastBackoffNanos = new AtomicLong(NEVER);
+
+    public AdmissionControlFilter(@Value("${app.admission.enabled:true}") boolean enabled,
+                                  @Value("${app.admission.latency-target-ms:250}") long latencyTargetMs,
+                                  @Value("${app.admission.initial-limit:100}") int initialLimit,
+                                  @Value("${app.admission.min-limit:10}") int minLimit,
+                                  @Value("${app.admission.max-limit:1000}") int maxLimit,
+                                  @Value("${app.admission.backoff:0.9}") double backoff,
+                                  @Value("${app.admission.backoff-window-ms:${app.admission.latency-target-ms:250}}") long backoffWindowMs) {
+        this.enabled = enabled;
+        this.latencyTargetNanos = latencyTargetMs * 1_000_000L;
+        this.limitBits.set(Double.doubleToLongBits(initialLimit));
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoff = backoff;
+        this.backoffWindowNanos = backoffWindowMs * 1_000_000L;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        // the live stream is long lived and would hold a slot forever
+        return !enabled || request.getRequestURI().equals("/messages/stream");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Priority priority = priorityOf(request.getMethod(), request.getRequestURI());
+        if (!tryAdmit(priority)) {
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader("Retry-After", "1");
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            inFlight.decrementAndGet();
+            if (!request.getRequestURI().equals("/messages/import")) {
+                long end = System.nanoTime();
+                onSample(end - start, end);
+            }
+        }
+    }
+
+    /**
+     * Takes an in-flight slot if the priority's share of the limit has room.
+     */
+    boolean tryAdmit(Priority priority) {
+        int allowed = Math.max(1, (int) (limit() * priority.share));
+        while (true) {
+            int current = inFlight.get();
+            if (current >= allowed) {
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adjusts the limit from one observed request latency.
+     * @param latencyNanos
+     * @param nowNanos System.nanoTime() when the request finished
+     */
+    void onSample(long latencyNanos, long nowNanos) {
+        if (latencyNanos > latencyTargetNanos) {
+            long last = lastBackoffNanos.get();
+            // only the one request that moves the window on backs off
+            if ((last == NEVER || nowNanos - last >= backoffWindowNanos) && lastBackoffNanos.compareAndSet(last, nowNanos)) {
+                while (true) {
+                    long bits = limitBits.get();
+                    double backedOff = Math.max(minLimit, Double.longBitsToDouble(bits) * backoff);
+                    if (limitBits.compareAndSet(bits, Double.doubleToLongBits(backedOff))) {
+                        return;
+                    }
+                }
+            }
+            return;
+        }
+        while (true) {
+            long bits = limitBits.get();
+            double current = Double.longBitsToDouble(bits);
+            if (current >= maxLimit) {
+                return;
+            }
+            // grows by about one per limit's worth of fast requests
+            double grown = Math.min(maxLimit, current + 1.0 / current);
+            if (limitBits.compareAndSet(bits, Double.doubleToLongBits(grown))) {
+                return;
+            }
+        }
+    }
+
+    private double limit() {
+        return Double.longBitsToDouble(limitBits.get());
+    }
+
+    /**
+     * @return the current concurrency limit
+     */
+    public int getLimit() {
+        return (int) limit();
+    }
+
+    /**
+     * @return the number of requests being processed right now
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    static Priority priorityOf(String method, String path) {
+        if ("POST".equals(method) && path.equals("/login")) {
+            return Priority.HIGH;
+        }
+        if ("GET".equals(method)) {
+            if (SINGLE_MESSAGE.matcher(path).matches()) {
+                return Priority.HIGH;
+            }
+            if (path.equals("/messages") || path.equals("/messages/search")
+                    || (path.startsWith("/accounts/") && path.endsWith("/messages"))) {
+                return Priority.LOW;
+            }
+        }
+        return Priority.NORMAL;
+    }
+}
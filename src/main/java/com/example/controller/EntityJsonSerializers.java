@@ -0,0 +1,82 @@
+package com.example.controller;
+import com.example.entity.*;
+
+import org.springframework.boot.jackson.JsonComponent;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Hand-written Jackson serializers for the entities returned by the controller.
+ * They write each field straight to the generator with pre-encoded field names instead of
+ * going through reflective bean introspection, which matters for the large message lists.
+ * The JSON produced is identical to the default (same fields, same order, nulls included). A message's
+ * version is left out of both (it is @JsonIgnore'd); clients get it through the message's ETag.
+ */
+@JsonComponent
+public class EntityJsonSerializers {
+
+    /**
+     * Serializes a Message.
+     */
+    public static class MessageSerializer extends JsonSerializer<Message> {
+
+        private static final SerializableString MESSAGE_ID = new SerializedString("messageId");
+        private static final SerializableString POSTED_BY = new SerializedString("postedBy");
+        private static final SerializableString MESSAGE_TEXT = new SerializedString("messageText");
+        private static final SerializableString TIME_POSTED_EPOCH = new SerializedString("timePostedEpoch");
+
+        @Override
+        public void serialize(Message msg, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(msg);
+            gen.writeFieldName(MESSAGE_ID);
+            writeInteger(gen, msg.getMessageId());
+            gen.writeFieldName(POSTED_BY);
+            writeInteger(gen, msg.getPostedBy());
+            gen.writeFieldName(MESSAGE_TEXT);
+            gen.writeString(msg.getMessageText());
+            gen.writeFieldName(TIME_POSTED_EPOCH);
+            if (msg.getTimePostedEpoch() == null) {
+                gen.writeNull();
+            } else {
+                gen.writeNumber(msg.getTimePostedEpoch().longValue());
+            }
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * Serializes an Account.
+     */
+    public static class AccountSerializer extends JsonSerializer<Account> {
+
+        private static final SerializableString ACCOUNT_ID = new SerializedString("accountId");
+        private static final SerializableString USERNAME = new SerializedString("username");
+        private static final SerializableString PASSWORD = new SerializedString("password");
+
+        @Override
+        public void serialize(Account acc, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartObject(acc);
+            gen.writeFieldName(ACCOUNT_ID);
+            writeInteger(gen, acc.getAccountId());
+            gen.writeFieldName(USERNAME);
+            gen.writeString(acc.getUsername());
+            gen.writeFieldName(PASSWORD);
+            gen.writeString(acc.getPassword());
+            gen.writeEndObject();
+        }
+    }
+
+    private static void writeInteger(JsonGenerator gen, Integer value) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else {
+            gen.writeNumber(value.intValue());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Remembers the responses of requests sent with an Idempotency-Key header so that a client
+ * retrying after a timeout gets the original response back instead of creating a duplicate.
+ * Concurrent requests with the same key share one execution: the first one runs, the others
+ * wait for its result.
+ *
+ * Keys are scoped by client (its address) and endpoint, so clients can't collide with or replay
+ * each other's keys. A hash of the request body is kept with the key; reusing a key for a different
+ * body is a client error and gets 422 (UNPROCESSABLE ENTITY) rather than the unrelated original response.
+ *
+ * Responses are kept for a limited time and the number of remembered keys is bounded. Keys are
+ * evicted oldest first, from a queue in the order they were first seen.
+ */
+@Component
+public class IdempotencyStore {
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // entries in the order they were added, oldest first
+    private final Queue<Entry> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final ObjectMapper objectMapper;
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    public IdempotencyStore(ObjectMapper objectMapper,
+                            @Value("${app.idempotency.ttl-seconds:86400}") long ttlSeconds,
+                            @Value("${app.idempotency.max-entries:100000}") int maxEntries) {
+        this.objectMapper = objectMapper;
+        this.ttlMillis = ttlSeconds * 1000L;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Runs the handler once per client, endpoint and key and returns its response to every caller
+     * that sends the same body.
+     * @param endpoint scopes the key, so the same key can be used on different endpoints
+     * @param client scopes the key to the client that sent it, e.g. its address
+     * @param key the client's Idempotency-Key. If null the handler is simply run.
+     * @param body the request body, before the handler has seen it
+     * @param handler produces the response
+     * @return the (possibly remembered) response. 422 (UNPROCESSABLE ENTITY) if the key was used with a different body.
+     */
+    public ResponseEntity execute(String endpoint, String client, String key, Object body, Supplier<ResponseEntity> handler) {
+        if (key == null) {
+            return handler.get();
+        }
+        String scopedKey = client + '|' + endpoint + '|' + key;
+        long now = System.currentTimeMillis();
+
+        Entry mine = new Entry(scopedKey, hash(body), now);
+        Entry existing = entries.putIfAbsent(scopedKey, mine);
+        if (existing != null && now - existing.createdAt > ttlMillis) {
+            // expired, start over
+            entries.remove(scopedKey, existing);
+            existing = entries.putIfAbsent(scopedKey, mine);
+        }
+        if (existing != null) {
+            if (!Arrays.equals(existing.bodyHash, mine.bodyHash)) {
+                return ResponseEntity.status(HttpStatus.UNPROCESSABLE_ENTITY).body(null);
+            }
+            return awaitResult(existing);
+        }
+
+        insertionOrder.add(mine);
+        evict(now);
+
+        try {
+            ResponseEntity response = handler.get();
+            mine.result.complete(response);
+            return response;
+        } catch (RuntimeException e) {
+            // nothing was remembered, let the client retry
+            entries.remove(scopedKey, mine);
+            mine.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    private ResponseEntity awaitResult(Entry entry) {
+        try {
+            return entry.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting on a request with the same idempotency key", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Drops the oldest entries while they have expired or there are too many. Stops at an entry whose
+     * request is still running, unless it has expired, so a running request is never forgotten.
+     */
+    private void evict(long now) {
+        Entry oldest;
+        while ((oldest = insertionOrder.peek()) != null) {
+            boolean expired = now - oldest.createdAt > ttlMillis;
+            if (!expired && (entries.size() <= maxEntries || !oldest.result.isDone())) {
+                return;
+            }
+            if (insertionOrder.remove(oldest)) {
+                entries.remove(oldest.scopedKey, oldest);
+            }
+        }
+    }
+
+    private byte[] hash(Object body) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(objectMapper.writeValueAsBytes(body));
+        } catch (JsonProcessingException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Could not hash request body", e);
+        }
+    }
+
+    private static class Entry {
+        final String scopedKey;
+        final byte[] bodyHash;
+        final long createdAt;
+        final CompletableFuture<ResponseEntity> result = new CompletableFuture<>();
+
+        Entry(String scopedKey, byte[] bodyHash, long createdAt) {
+            this.scopedKey = scopedKey;
+            this.bodyHash = bodyHash;
+            this.createdAt = createdAt;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+/**
+ * Rate limits the write endpoints (POST /messages, /login and /register) per client IP so a
+ * single client can't flood them. Each client/endpoint pair gets its own token bucket; when the
+ * bucket is empty the request is answered with 429 (TOO MANY REQUESTS) and a Retry-After header
+ * without reaching the controller or the database.
+ *
+ * POST /register/batch shares the /register bucket and is let in on one token like a single
+ * registration; once the body has been read the controller charges the rest of its accounts (see
+ * charge), so a batch registers no more accounts over time than single requests could.
+ *
+ * The client IP is the request's remote address as resolved by server.forward-headers-strategy,
+ * so clients behind a trusted proxy each get their own buckets rather than sharing the proxy's.
+ *
+ * Buckets are lock-free: a bucket is a single AtomicLong holding the time at which it will be
+ * full again, updated with compare-and-set. A bucket that is full is indistinguishable from a new
+ * one, so each bucket expires at that time. Beyond that the number of buckets is bounded: when it
+ * is reached, the least recently used buckets are evicted (approximately, by the Caffeine cache
+ * holding them), without a sweep over all of them.
+ */
+@Component
+@Order(1)
+public class RateLimitFilter extends OncePerRequestFilter {
+
+    private final Cache<String, AtomicLong> buckets;
+    private final boolean enabled;
+    private final long nanosPerToken;
+    private final long burstNanos;
+
+    public RateLimitFilter(@Value("${app.rate-limit.enabled:true}") boolean enabled,
+                           @Value("${app.rate-limit.permits-per-second:20}") double permitsPerSecond,
+                           @Value("${app.rate-limit.burst:40}") int burst,
+                           @Value("${app.rate-limit.max-buckets:100000}") int maxBuckets) {
+        this.enabled = enabled;
+        this.nanosPerToken = (long) (1_000_000_000L / permitsPerSecond);
+        this.burstNanos = this.nanosPerToken * burst;
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfter(new UntilFull())
+                .build();
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (!enabled || !"POST".equals(request.getMethod())) {
+            return true;
+        }
+        String path = request.getRequestURI();
+        return !(path.equals("/messages") || path.equals("/login") || path.equals("/register")
+                || path.equals("/register/batch"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        String endpoint = request.getRequestURI().equals("/register/batch") ? "/register" : request.getRequestURI();
+        long waitNanos = tryAcquire(bucketKey(endpoint, request), System.nanoTime());
+        if (waitNanos > 0) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader("Retry-After", Long.toString((waitNanos + 999_999_999L) / 1_000_000_000L));
+            return;
+        }
+        chain.doFilter(request, response);
+    }
+
+    /**
+     * Takes a token from the key's bucket.
+     * @param key
+     * @param now current System.nanoTime()
+     * @return 0 if a token was taken, otherwise how many nanos until one is available
+     */
+    long tryAcquire(String key, long now) {
+        AtomicLong bucket = buckets.get(key, k -> new AtomicLong(now));
+
+        while (true) {
+            // the time at which the bucket will be full again
+            long fullAt = bucket.get();
+            long next = Math.max(fullAt, now) + nanosPerToken;
+            if (next - now > burstNanos) {
+                return next - now - burstNanos;
+            }
+            if (bucket.compareAndSet(fullAt, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Takes more tokens from the client's bucket for the endpoint, after a request that turned out
+     * to do the work of several has already been let in. The tokens are taken even if the bucket
+     * doesn't hold that many: it goes into debt, and the client's next requests wait until it is paid off.
+     * @param endpoint whose bucket to charge
+     * @param request the request being charged for, identifying the client
+     * @param permits how many more tokens to take
+     */
+    public void charge(String endpoint, HttpServletRequest request, int permits) {
+        if (!enabled || permits <= 0) {
+            return;
+        }
+        charge(bucketKey(endpoint, request), permits, System.nanoTime());
+    }
+
+    void charge(String key, int permits, long now) {
+        // through compute, so that the bucket's expiry is moved out to the end of its debt
+        buckets.asMap().compute(key, (k, bucket) -> {
+            if (bucket == null) {
+                bucket = new AtomicLong(now);
+            }
+            bucket.getAndUpdate(fullAt -> Math.max(fullAt, now) + permits * nanosPerToken);
+            return bucket;
+        });
+    }
+
+    private static String bucketKey(String endpoint, HttpServletRequest request) {
+        return endpoint + '|' + request.getRemoteAddr();
+    }
+
+    /**
+     * Expires a bucket once it is full again. Read before a token is taken, so one token's worth is added.
+     */
+    private class UntilFull implements Expiry<String, AtomicLong> {
+        @Override
+        public long expireAfterCreate(String key, AtomicLong bucket, long currentTime) {
+            return untilFull(bucket, currentTime);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, AtomicLong bucket, long currentTime, long currentDuration) {
+            return untilFull(bucket, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, AtomicLong bucket, long currentTime, long currentDuration) {
+            return untilFull(bucket, currentTime);
+        }
+
+        private long untilFull(AtomicLong bucket, long currentTime) {
+            return Math.max(bucket.get() - currentTime, 0) + nanosPerToken;
+        }
+    }
+}
@@ -1,13 +1,26 @@
 package com.example.controller;
+import com.example.ConnectionPoolTelemetry;
+import com.example.HibernateCacheStatistics;
 import com.example.service.*;
 import com.example.entity.*;
+import com.example.exception.MessageVersionConflictException;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.ConcurrencyFailureException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 /**
  * TODO: You will need to write your own endpoints and handlers for your controller using Spring. The endpoints you will need can be
  * found in readme.md as well as the test cases. You be required to use the @GET/POST/PUT/DELETE/etc Mapping annotations
@@ -22,13 +35,29 @@ import java.util.List;
 @Controller
 public class SocialMediaController {
 
+    private static final int MAX_CONFLICT_RETRIES = 3;
+
     AccountService accService;
     MessageService msgService;
+    IdempotencyStore idempotencyStore;
+    ConnectionPoolTelemetry poolTelemetry;
+    HibernateCacheStatistics cacheStatistics;
+    InputValidator validator;
+    MessageImporter msgImporter;
+    RateLimitFilter rateLimit;
 
     @Autowired
-    public SocialMediaController(AccountService accService, MessageService msgService) {
+    public SocialMediaController(AccountService accService, MessageService msgService, IdempotencyStore idempotencyStore,
+                                 ConnectionPoolTelemetry poolTelemetry, HibernateCacheStatistics cacheStatistics,
+                                 InputValidator validator, MessageImporter msgImporter, RateLimitFilter rateLimit) {
         this.accService = accService;
         this.msgService = msgService;
+        this.idempotencyStore = idempotencyStore;
+        this.poolTelemetry = poolTelemetry;
+        this.cacheStatistics = cacheStatistics;
+        this.validator = validator;
+        this.msgImporter = msgImporter;
+        this.rateLimit = rateLimit;
     }
 
     /**
@@ -36,14 +65,31 @@ public class SocialMediaController {
      *  - username is not blank
      *  - username is not already taken
      *  - password is at least 4 chars long
-     * These checks are handled by the account service class.
+     *  - neither is too long nor malformed
+     * Credentials are checked by the InputValidator before the database is queried.
+     * A retried request with the same Idempotency-Key gets the original response back.
      * @param acc from Request Body
+     * @param idempotencyKey optional client generated key for safe retries
+     * @param request
      * @return Response Entity with the registered account and status code 200 (OK).
      *         Returns 409 (CONFLICT) if username is already taken.
      *         Retruns 400 (Client Error) for all other registration errors. 
+     *         Returns 422 (UNPROCESSABLE ENTITY) if the Idempotency-Key was already used with a different body.
      */
     @PostMapping("/register")
-    public ResponseEntity accountRegistrationHandler(@RequestBody Account acc) {
+    public ResponseEntity accountRegistrationHandler(@RequestBody Account acc,
+                                                     @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                                     HttpServletRequest request) {
+        return this.idempotencyStore.execute("/register", request.getRemoteAddr(), idempotencyKey, acc,
+                () -> this.registerAccount(acc));
+    }
+
+    private ResponseEntity registerAccount(Account acc) {
+
+        // refuse invalid credentials before touching the database
+        if (!this.validator.isValidCredentials(acc.getUsername(), acc.getPassword())) {
+            return ResponseEntity.status(400).body(null);
+        }
         
         // check if the username already exists
         if (this.accService.usernameAlreadyExists(acc.getUsername())) {
@@ -65,6 +111,81 @@ public class SocialMediaController {
         return ResponseEntity.status(400).body(null);
     }
 
+    /**
+     * Registers many accounts in one request, e.g. for migrations. Each account is checked with the
+     * same rules as /register, and gets its own outcome. Every account counts against the client's
+     * /register rate limit.
+     * @param accs JSON array of accounts from the request body (at most 1000)
+     * @param request
+     * @return a list with, for each account in order, {"status": 200, "account": the registered account},
+     *         {"status": 409} if the username is taken, or {"status": 400} for other registration errors.
+     *         Code 200 (OK) overall, or 400 (Client Error) if there are no accounts or too many.
+     */
+    @PostMapping("/register/batch")
+    public ResponseEntity batchRegistrationHandler(@RequestBody List<Account> accs, HttpServletRequest request) {
+        if (accs == null || accs.isEmpty() || accs.size() > 1000 || accs.contains(null)) {
+            return ResponseEntity.status(400).body(null);
+        }
+        // the rate limit let the request in on one token
+        this.rateLimit.charge("/register", request, accs.size() - 1);
+        List<AccountService.RegistrationOutcome> outcomes = this.accService.persistAccounts(accs);
+
+        List<Map<String, Object>> results = new ArrayList<>();
+        for (int i = 0; i < accs.size(); i++) {
+            Map<String, Object> result = new LinkedHashMap<>();
+            switch (outcomes.get(i)) {
+                case REGISTERED:
+                    Account acc = accs.get(i);
+                    // do not return the account ID to the client, same as /register
+                    acc.setAccountId(null);
+                    result.put("status", HttpStatus.OK.value());
+                    result.put("account", acc);
+                    break;
+                case USERNAME_TAKEN:
+                    result.put("status", HttpStatus.CONFLICT.value());
+                    break;
+                default:
+                    result.put("status", HttpStatus.BAD_REQUEST.value());
+            }
+            results.add(result);
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(results);
+    }
+
+    /**
+     * Looks up many account profiles by ID in one request. Passwords are not included.
+     * @param ids comma separated account IDs (at most 100)
+     * @return {"accounts": [{"accountId", "username"}] in the order of the IDs, "missing": the IDs not found}
+     *         + code 200 (OK). 400 (Client Error) if there are no IDs or too many.
+     */
+    @GetMapping("/accounts")
+    public ResponseEntity getAccountsHandler(@RequestParam List<Integer> ids) {
+        if (ids.isEmpty() || ids.size() > 100 || ids.contains(null)) {
+            return ResponseEntity.status(400).body(null);
+        }
+        Map<Integer, Account> found = new HashMap<>();
+        for (Account acc : this.accService.getAccountsByIds(ids)) {
+            found.put(acc.getAccountId(), acc);
+        }
+        List<Map<String, Object>> accounts = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            Account acc = found.get(id);
+            if (acc == null) {
+                missing.add(id);
+                continue;
+            }
+            Map<String, Object> profile = new LinkedHashMap<>();
+            profile.put("accountId", acc.getAccountId());
+            profile.put("username", acc.getUsername());
+            accounts.add(profile);
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("accounts", accounts);
+        body.put("missing", missing);
+        return ResponseEntity.status(HttpStatus.OK).body(body);
+    }
+
     /**
      * Processes login attempt. 
      * @param account credentials from Request Body
@@ -74,6 +195,11 @@ public class SocialMediaController {
     @PostMapping("/login")
     public ResponseEntity loginHandler(@RequestBody Account acc) {
 
+        // credentials that no account could have been registered with can't match one
+        if (!this.validator.isValidCredentials(acc.getUsername(), acc.getPassword())) {
+            return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body(null);
+        }
+
         //attempt login
         Account loggedInAccount = this.accService.login(acc);
 
@@ -90,16 +216,31 @@ public class SocialMediaController {
     /**
      * Handles the creation of a new message. Passes the msg body to the msgService to 
      * handle it being updated to the table. Message creation will not be successful if:
-     *  - message text is blank
-     *  - message text length is > 255 chars
+     *  - message text is blank, malformed or > 255 chars (checked first, by the InputValidator)
      *  - account that the message is posted by is tied to an existing account
      * Checks are handled by their respective service classes.
+     * A retried request with the same Idempotency-Key gets the original response back.
      * @param msg
+     * @param idempotencyKey optional client generated key for safe retries
+     * @param request
      * @return Status code 200 (OK) + the created message. 
      *         If message creation fails: 400 (Client Error)
+     *         If the Idempotency-Key was already used with a different body: 422 (UNPROCESSABLE ENTITY)
      */
     @PostMapping("/messages")
-    public ResponseEntity createMessageHandler(@RequestBody Message msg) {
+    public ResponseEntity createMessageHandler(@RequestBody Message msg,
+                                               @RequestHeader(value = "Idempotency-Key", required = false) String idempotencyKey,
+                                               HttpServletRequest request) {
+        return this.idempotencyStore.execute("/messages", request.getRemoteAddr(), idempotencyKey, msg,
+                () -> this.createMessage(msg));
+    }
+
+    private ResponseEntity createMessage(Message msg) {
+
+        // refuse invalid message text before touching the database
+        if (!this.validator.isValidMessageText(msg.getMessageText())) {
+            return ResponseEntity.status(400).body(null);
+        }
         
         // check if poster actually exists via ID
         Integer postedByID = msg.getPostedBy();
@@ -122,65 +263,220 @@ public class SocialMediaController {
 
     }
 
+    /**
+     * Imports a JSON array of messages of any size, e.g. from another system. The body is streamed
+     * and saved in chunks rather than bound all at once, so its size isn't limited by memory
+     * (see MessageImporter). Each message is checked like in POST /messages; invalid ones are
+     * skipped and reported.
+     * @param request the request, whose body is read as a stream
+     * @return {"imported", "rejected", "rejectedPositions": the first 100, "error": null} + code 200 (OK)
+     *         The same with the error + code 400 (Client Error) if the body isn't a JSON array of
+     *         messages, or a chunk of them could not be saved. Messages before the problem are imported nonetheless.
+     */
+    @PostMapping("/messages/import")
+    public ResponseEntity importMessagesHandler(HttpServletRequest request) throws IOException {
+        MessageImporter.Result result = this.msgImporter.importFrom(request.getInputStream());
+        if (result.getError() != null) {
+            return ResponseEntity.status(400).body(result);
+        }
+        return ResponseEntity.status(HttpStatus.OK).body(result);
+    }
+
     /**
      * Gets all messages through calling the service class. 
+     * Given since and/or until, only messages posted in that time range are returned, oldest first
+     * and one page at a time (see timeRangeResponse).
+     * Given ids, only those messages are returned (see multiGetResponse).
+     * The response carries an ETag; if the client already has the current list
+     * (If-None-Match) no messages are queried.
+     * @param ids comma separated message IDs (optional, at most 100)
+     * @param since epoch second the time range starts at, inclusive (optional)
+     * @param until epoch second the time range ends at, exclusive (optional)
+     * @param cursor where the page starts, taken from the previous page's Link header (optional)
+     * @param limit max number of messages in a time range page (defaults to 100, capped at 100)
+     * @param ifNoneMatch
      * @return A list off all messages in the response body + code 200 (OK)
+     *         If the client's copy is current: empty response body + code 304 (NOT MODIFIED)
+     *         Returns 400 (Client Error) if the time range params are invalid or there are too many IDs.
      */
     @GetMapping("/messages")
-    public ResponseEntity getAllMessagesHandler() {
+    public ResponseEntity getAllMessagesHandler(@RequestParam(required = false) List<Integer> ids,
+                                                @RequestParam(required = false) Long since,
+                                                @RequestParam(required = false) Long until,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(required = false) Integer limit,
+                                                @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        // the tag has to be read before the query so it can never be newer than the body
+        String etag = this.msgService.getAllMessagesTag();
+        if (etagMatches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        if (ids != null) {
+            return this.multiGetResponse(ids);
+        }
+        if (since != null || until != null) {
+            return this.timeRangeResponse(null, "/messages", since, until, cursor, limit, etag);
+        }
+
         List<Message> allMsgs = this.msgService.getAllMessages();
         
         // return status code 200 + a list of all the messages
-        return ResponseEntity.status(HttpStatus.OK).body(allMsgs);
+        return ResponseEntity.status(HttpStatus.OK).eTag(etag).body(allMsgs);
     }
 
 
+    /**
+     * Gets many messages by ID in one request (see multiGetResponse).
+     * @param ids JSON array of message IDs from the request body (at most 100)
+     * @return the found messages and the missing IDs + code 200 (OK)
+     *         Returns 400 (Client Error) if there are no IDs or too many.
+     */
+    @PostMapping("/messages/multi-get")
+    public ResponseEntity multiGetMessagesHandler(@RequestBody List<Integer> ids) {
+        return this.multiGetResponse(ids);
+    }
+
+    /**
+     * Searches message text through the message service class. Results are ranked by relevance
+     * and paginated.
+     * @param q the search text
+     * @param page zero based page number (defaults to 0)
+     * @param size max number of messages in the page (defaults to 20, capped at 100)
+     * @return A list of matching messages + code 200 (OK).
+     *         Returns 400 (Client Error) if the search text is blank or the page params are invalid.
+     */
+    @GetMapping("/messages/search")
+    public ResponseEntity searchMessagesHandler(@RequestParam(defaultValue = "") String q,
+                                                @RequestParam(defaultValue = "0") int page,
+                                                @RequestParam(defaultValue = "20") int size) {
+        if (q.isBlank() || page < 0 || size <= 0) {
+            return ResponseEntity.status(400).body(null);
+        }
+        List<Message> foundMsgs = this.msgService.searchMessages(q, page, Math.min(size, 100));
+        return ResponseEntity.status(HttpStatus.OK).body(foundMsgs);
+    }
+
+    /**
+     * Opens a live stream (Server-Sent Events) of message changes so clients don't have to poll.
+     * Events are named "created", "updated" or "deleted" and carry the message as JSON.
+     * @param postedBy optional account ID to only stream that account's messages
+     * @return the event stream
+     */
+    @GetMapping(value = "/messages/stream", produces = "text/event-stream")
+    public SseEmitter streamMessagesHandler(@RequestParam(required = false) Integer postedBy) {
+        return this.msgService.subscribe(postedBy);
+    }
+
     /**
      * Gets message by it's ID by calling the message service class.
+     * The response carries a strong ETag that changes whenever the message is updated; it can be
+     * sent back in If-None-Match to revalidate, or in If-Match to update or delete the message
+     * only if it hasn't changed since.
      * @param messageId
+     * @param ifNoneMatch
      * @return The found message (null otherwise) in the response body + code 200 (OK)
+     *         If the client's copy is current: empty response body + code 304 (NOT MODIFIED)
      */
     @GetMapping("/messages/{messageId}")
-    public ResponseEntity getMessageByIdHandler(@PathVariable Integer messageId) {
+    public ResponseEntity getMessageByIdHandler(@PathVariable Integer messageId,
+                                                @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
         Message msg = this.msgService.getMessageById(messageId);
+        if (msg == null) {
+            return ResponseEntity.status(HttpStatus.OK).body(null);
+        }
+
+        String etag = this.msgService.getMessageTag(msg);
+        if (etagMatches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
         
         // return status code 200 + the message if found
-        return ResponseEntity.status(HttpStatus.OK).body(msg);
+        return ResponseEntity.status(HttpStatus.OK).eTag(etag).body(msg);
     }
 
     /**
      * Deletes message by ID by calling the message service class.
+     * Given If-Match with the message's ETag, the message is only deleted if it hasn't been
+     * updated since; If-Match: * deletes it whatever its version.
      * @param messageId
+     * @param ifMatch (optional)
      * @return If message existed: number of rows affected in the response body + status 200
      *         If message did not ever exist: empty response body + status code 200 
+     *         If If-Match was sent and the message is gone or was changed: empty response body + code 412 (PRECONDITION FAILED)
+     *         If the message kept changing during the delete: empty response body + code 409 (CONFLICT)
      */
     @DeleteMapping("/messages/{messageId}")
-    public ResponseEntity deleteMessageByIdHandler(@PathVariable Integer messageId) {
+    public ResponseEntity deleteMessageByIdHandler(@PathVariable Integer messageId,
+                                                   @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        Long expectedVersion = null;
+        if (ifMatch != null && !ifMatch.trim().equals("*")) {
+            expectedVersion = this.msgService.getVersionFromTag(messageId, ifMatch.trim());
+            if (expectedVersion == null) {
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(null);
+            }
+        }
+        Long version = expectedVersion;
+
         // call the service to attempt to delete the message and get back affected rows
-        Integer numOfUpdatedRows = this.msgService.deleteMessageById(messageId);
+        Integer numOfUpdatedRows;
+        try {
+            numOfUpdatedRows = withConflictRetries(ifMatch != null,
+                    () -> this.msgService.deleteMessageById(messageId, version));
+        } catch (MessageVersionConflictException | ConcurrencyFailureException e) {
+            return ResponseEntity.status(ifMatch != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT).body(null);
+        }
         if (numOfUpdatedRows >= 1) {
             // response status code 200 + the number of updated rows (should be 1)
             return ResponseEntity.status(HttpStatus.OK).body(numOfUpdatedRows);
         }
+        if (ifMatch != null) {
+            return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(null);
+        }
         return ResponseEntity.status(HttpStatus.OK).body(null);
     }
 
     /**
      * Updates a message given a message ID. message contents are taken from the request body.
      * Update will be successful if:
-     *  - Message content is not blank
-     *  - Message content is not over 255 chars long
+     *  - Message content is not blank, malformed or over 255 chars long (checked first, by the InputValidator)
      *  - Message with the given ID exists
-     * Checks are handled by the message service class
+     *  - If-Match, when sent, is the message's current ETag (or *)
+     * Checks are handled by the message service class.
+     * Without If-Match, an update that races another one is retried a few times and the last one wins.
      * @param messageId
      * @param msg (from the request body)
+     * @param ifMatch (optional)
      * @return Num of updated rows in response entity + code 200 (OK)
      *         If update fails: empty response body + code 400 (CLIENT ERROR)
+     *         If the message was changed since the If-Match ETag: empty response body + code 412 (PRECONDITION FAILED)
+     *         If the message kept changing during the update: empty response body + code 409 (CONFLICT)
      */
     @PatchMapping("/messages/{messageId}")
-    public ResponseEntity updateMessageHandler(@PathVariable Integer messageId, @RequestBody Message msg) {
+    public ResponseEntity updateMessageHandler(@PathVariable Integer messageId, @RequestBody Message msg,
+                                               @RequestHeader(value = "If-Match", required = false) String ifMatch) {
+        // refuse invalid message text before touching the database
         String msgText = msg.getMessageText();
-        Integer numOfUpdatedRows = this.msgService.updateMessageById(messageId, msgText);
+        if (!this.validator.isValidMessageText(msgText)) {
+            return ResponseEntity.status(400).body(null);
+        }
+
+        Long expectedVersion = null;
+        if (ifMatch != null && !ifMatch.trim().equals("*")) {
+            expectedVersion = this.msgService.getVersionFromTag(messageId, ifMatch.trim());
+            if (expectedVersion == null) {
+                return ResponseEntity.status(HttpStatus.PRECONDITION_FAILED).body(null);
+            }
+        }
+        Long version = expectedVersion;
+
+        Integer numOfUpdatedRows;
+        try {
+            numOfUpdatedRows = withConflictRetries(ifMatch != null,
+                    () -> this.msgService.updateMessageById(messageId, msgText, version));
+        } catch (MessageVersionConflictException | ConcurrencyFailureException e) {
+            return ResponseEntity.status(ifMatch != null ? HttpStatus.PRECONDITION_FAILED : HttpStatus.CONFLICT).body(null);
+        }
 
         if (numOfUpdatedRows >= 1) {
             // return code 200 and the num of updated rows (1)
@@ -191,13 +487,232 @@ public class SocialMediaController {
 
     /**
      * Gets all messages posted by a user given an account ID.
+     * Given a limit, only one page is returned, in message ID order; the next page starts after
+     * the last message ID of this one and is linked in the Link header while there may be more.
+     * Given since and/or until, only messages posted in that time range are returned, oldest first
+     * and one page at a time (see timeRangeResponse); after is then not used.
+     * The response carries an ETag; if the client already has the current list
+     * (If-None-Match) no messages are queried.
      * @param accountId
+     * @param after cursor: the last message ID of the previous page (optional)
+     * @param since epoch second the time range starts at, inclusive (optional)
+     * @param until epoch second the time range ends at, exclusive (optional)
+     * @param cursor where a time range page starts, taken from the previous page's Link header (optional)
+     * @param limit max number of messages in the page (optional, capped at 100)
+     * @param ifNoneMatch
      * @return a list of all retrieved messages in response entity + code 200 (OK)
+     *         If the client's copy is current: empty response body + code 304 (NOT MODIFIED)
+     *         Returns 400 (Client Error) if the limit is not positive or the time range params are invalid.
      */
     @GetMapping("/accounts/{accountId}/messages")
-    public ResponseEntity getAllMessagesFromUserHandler(@PathVariable Integer accountId) {
+    public ResponseEntity getAllMessagesFromUserHandler(@PathVariable Integer accountId,
+                                                        @RequestParam(required = false) Integer after,
+                                                        @RequestParam(required = false) Long since,
+                                                        @RequestParam(required = false) Long until,
+                                                        @RequestParam(required = false) String cursor,
+                                                        @RequestParam(required = false) Integer limit,
+                                                        @RequestHeader(value = "If-None-Match", required = false) String ifNoneMatch) {
+        if (limit != null && limit <= 0) {
+            return ResponseEntity.status(400).body(null);
+        }
+        String etag = this.msgService.getMessagesFromUserTag(accountId);
+        if (etagMatches(ifNoneMatch, etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+        }
+
+        if (since != null || until != null) {
+            return this.timeRangeResponse(accountId, "/accounts/" + accountId + "/messages", since, until, cursor, limit, etag);
+        }
+
+        if (limit != null) {
+            int pageSize = Math.min(limit, 100);
+            List<Message> page = this.msgService.getMessagesFromUserPage(accountId, after, pageSize);
+            ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK).eTag(etag);
+            if (page.size() == pageSize) {
+                Integer lastId = page.get(page.size() - 1).getMessageId();
+                response.header("Link", "</accounts/" + accountId + "/messages?after=" + lastId
+                        + "&limit=" + pageSize + ">; rel=\"next\"");
+            }
+            return response.body(page);
+        }
+
         List<Message> retrievedMsgs = this.msgService.getMessagesFromUser(accountId);
         // return status code 200
-        return ResponseEntity.status(HttpStatus.OK).body(retrievedMsgs);
+        return ResponseEntity.status(HttpStatus.OK).eTag(etag).body(retrievedMsgs);
+    }
+
+    /**
+     * Counts the messages posted by a user without loading them.
+     * @param accountId
+     * @return the number of messages in response entity + code 200 (OK)
+     */
+    @GetMapping("/accounts/{accountId}/messages/count")
+    public ResponseEntity countMessagesFromUserHandler(@PathVariable Integer accountId) {
+        return ResponseEntity.status(HttpStatus.OK).body(this.msgService.countMessagesFromUser(accountId));
+    }
+
+    /**
+     * Gets overall message statistics: the total number of messages and how many were created,
+     * updated and deleted since startup.
+     * @return the statistics in response entity + code 200 (OK)
+     */
+    @GetMapping("/messages/stats")
+    public ResponseEntity getMessageStatsHandler() {
+        return ResponseEntity.status(HttpStatus.OK).body(this.msgService.getMessageStats());
+    }
+
+    /**
+     * Reports database connection pool telemetry: pool state, connection acquire wait histogram,
+     * how long connections are held, and a recommended pool size.
+     * @return the telemetry + code 200 (OK)
+     */
+    @GetMapping("/admin/db-pool")
+    public ResponseEntity getDbPoolStatsHandler() {
+        return ResponseEntity.status(HttpStatus.OK).body(this.poolTelemetry.snapshot());
+    }
+
+    /**
+     * Reports hit, miss and put counts of the entity and query cache regions, and of the off-heap message cache,
+     * and how many message reads were shared with a concurrent identical one.
+     * @return the statistics per region + code 200 (OK)
+     */
+    @GetMapping("/admin/cache")
+    public ResponseEntity getCacheStatsHandler() {
+        Map<String, Object> stats = this.cacheStatistics.snapshot();
+        stats.put("message-offheap", this.msgService.getOffHeapCacheStats());
+        stats.put("message-shared-reads", this.msgService.getSharedReadStats());
+        return ResponseEntity.status(HttpStatus.OK).body(stats);
+    }
+
+    /**
+     * Reports how far the message outbox relay is behind: events delivered since startup, events
+     * still waiting, and the age of the oldest waiting event.
+     * @return the outbox statistics + code 200 (OK)
+     */
+    @GetMapping("/admin/outbox")
+    public ResponseEntity getOutboxStatsHandler() {
+        return ResponseEntity.status(HttpStatus.OK).body(this.msgService.getOutboxStats());
+    }
+
+    /**
+     * Looks up many messages at once, saving a request per message.
+     * @param ids message IDs. Duplicates are allowed.
+     * @return {"messages": the found messages in the order of the IDs, "missing": the IDs not found}
+     *         + code 200 (OK). 400 (Client Error) if there are no IDs or more than 100.
+     */
+    private ResponseEntity multiGetResponse(List<Integer> ids) {
+        if (ids == null || ids.isEmpty() || ids.size() > 100 || ids.contains(null)) {
+            return ResponseEntity.status(400).body(null);
+        }
+        Map<Integer, Message> found = this.msgService.getMessagesByIds(ids);
+        List<Message> msgs = new ArrayList<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : ids) {
+            Message msg = found.get(id);
+            if (msg != null) {
+                msgs.add(msg);
+            } else {
+                missing.add(id);
+            }
+        }
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("messages", msgs);
+        body.put("missing", missing);
+        return ResponseEntity.status(HttpStatus.OK).body(body);
+    }
+
+    /**
+     * Gets one page of messages posted in a time range, oldest first. While the page is full, the
+     * Link header points to the next one, which continues from a cursor of the form
+     * {post time}:{message ID} of the last message on this page.
+     * @param accountId only this account's messages. null for all accounts.
+     * @param path the endpoint, for the Link header
+     * @param since epoch second the range starts at, inclusive. null for no lower bound.
+     * @param until epoch second the range ends at, exclusive. null for no upper bound.
+     * @param cursor null for the first page
+     * @param limit max number of messages in the page. null for 100.
+     * @param etag tag of the collection the page is from
+     * @return the page + code 200 (OK). 400 (Client Error) if the params are invalid.
+     */
+    private ResponseEntity timeRangeResponse(Integer accountId, String path, Long since, Long until,
+                                             String cursor, Integer limit, String etag) {
+        long from = since == null ? Long.MIN_VALUE : since;
+        long to = until == null ? Long.MAX_VALUE : until;
+        int pageSize = limit == null ? 100 : Math.min(limit, 100);
+        if (from > to || pageSize <= 0) {
+            return ResponseEntity.status(400).body(null);
+        }
+        Long afterTime = null;
+        Integer afterId = null;
+        if (cursor != null) {
+            int sep = cursor.indexOf(':');
+            try {
+                afterTime = Long.parseLong(cursor.substring(0, Math.max(sep, 0)));
+                afterId = Integer.parseInt(cursor.substring(sep + 1));
+            } catch (NumberFormatException e) {
+                return ResponseEntity.status(400).body(null);
+            }
+        }
+
+        List<Message> page = this.msgService.getMessagesBetween(accountId, from, to, afterTime, afterId, pageSize);
+        ResponseEntity.BodyBuilder response = ResponseEntity.status(HttpStatus.OK).eTag(etag);
+        if (page.size() == pageSize) {
+            Message last = page.get(page.size() - 1);
+            StringBuilder next = new StringBuilder("<").append(path).append('?');
+            if (since != null) {
+                next.append("since=").append(since).append('&');
+            }
+            if (until != null) {
+                next.append("until=").append(until).append('&');
+            }
+            next.append("cursor=").append(last.getTimePostedEpoch()).append(':').append(last.getMessageId())
+                .append("&limit=").append(pageSize).append(">; rel=\"next\"");
+            response.header("Link", next.toString());
+        }
+        return response.body(page);
+    }
+
+    /**
+     * Runs a message write. A write that lost a race against a concurrent one is tried again,
+     * up to MAX_CONFLICT_RETRIES times, unless the client made it conditional; then losing the race
+     * means its precondition failed.
+     * @param conditional true if the client sent If-Match
+     * @param write
+     * @return the result of the write
+     */
+    private static Integer withConflictRetries(boolean conditional, Supplier<Integer> write) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return write.get();
+            } catch (ConcurrencyFailureException e) {
+                if (conditional || attempt >= MAX_CONFLICT_RETRIES) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks an If-None-Match header against the current entity tag.
+     * @param ifNoneMatch header value, may hold several comma separated tags or "*"
+     * @param etag current tag
+     * @return true if the client's copy is current
+     */
+    private static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        // If-None-Match uses weak comparison, so the W/ prefix is ignored on both sides
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
     }
 }
@@ -1,5 +1,11 @@
 package com.example.entity;
 
+import org.hibernate.annotations.ResultCheckStyle;
+import org.hibernate.annotations.SQLDelete;
+import org.hibernate.annotations.Where;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import javax.persistence.*;
 
 /**
@@ -9,6 +15,12 @@ import javax.persistence.*;
  */
 @Entity
 @Table(name="message")
+// deleting a message only marks its row deleted (a single version checked UPDATE) and hides it from
+// every query; the row is physically removed later by the background purge (DeletedMessagePurger).
+// The row count is checked, so a delete that lost a race against another change fails like an update would
+@SQLDelete(sql = "update message set deleted = true, version = version + 1 where messageId = ? and version = ?",
+           check = ResultCheckStyle.COUNT)
+@Where(clause = "not deleted")
 public class Message {
      /**
      * An id for this message which will be automatically generated by the database.
@@ -33,6 +45,14 @@ public class Message {
      */
     @Column (name="timePostedEpoch")
     private Long timePostedEpoch;
+    /**
+     * Incremented on every update, so that an update based on an outdated copy of the message is
+     * detected and refused (optimistic locking) instead of silently overwriting a newer change.
+     * Not part of the JSON; clients see it through the message's ETag.
+     */
+    @Version
+    @Column (name="version")
+    private Long version;
     /**
      * A default, no-args constructor, as well as correctly formatted getters and setters, are needed for
      * Jackson Objectmapper to work.
@@ -121,6 +141,21 @@ public class Message {
     public void setTimePostedEpoch(Long timePostedEpoch) {
         this.timePostedEpoch = timePostedEpoch;
     }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @return version
+     */
+    @JsonIgnore
+    public Long getVersion() {
+        return version;
+    }
+    /**
+     * Properly named getters and setters are necessary for Jackson ObjectMapper to work. You may use them as well.
+     * @param version
+     */
+    public void setVersion(Long version) {
+        this.version = version;
+    }
     /**
      * Overriding the default equals() method adds functionality to tell when two objects are identical, allowing
      * Assert.assertEquals and List.contains to function.
@@ -0,0 +1,103 @@
+package com.example.entity;
+
+import javax.persistence.*;
+
+/**
+ * This is a class that models a pending change notification in the outbox table.
+ *
+ * A row is written in the same transaction as the message change it describes and deleted
+ * once the outbox relay has delivered it downstream.
+ */
+@Entity
+@Table(name="outbox")
+@Cacheable(false) // rows are written once and read once by the relay, caching them would only cost memory
+public class OutboxEvent {
+    /**
+     * An id for this event, generated by the database. Events are delivered in id order.
+     */
+    @Column(name="outboxId")
+    @Id
+    @GeneratedValue
+    private Long outboxId;
+    /**
+     * What happened to the message: CREATED, UPDATED or DELETED.
+     */
+    @Column(name="eventType")
+    private String eventType;
+    /**
+     * The id of the message that changed.
+     */
+    @Column(name="messageId")
+    private Integer messageId;
+    /**
+     * JSON representation of the message after the change (or right before a delete).
+     */
+    @Column(name="payload")
+    private String payload;
+    /**
+     * The epoch time in milliseconds at which the change was made.
+     */
+    @Column(name="createdAt")
+    private Long createdAt;
+
+    public OutboxEvent(){
+    }
+
+    public OutboxEvent(String eventType, Integer messageId, String payload, Long createdAt) {
+        this.eventType = eventType;
+        this.messageId = messageId;
+        this.payload = payload;
+        this.createdAt = createdAt;
+    }
+
+    public Long getOutboxId() {
+        return outboxId;
+    }
+
+    public void setOutboxId(Long outboxId) {
+        this.outboxId = outboxId;
+    }
+
+    public String getEventType() {
+        return eventType;
+    }
+
+    public void setEventType(String eventType) {
+        this.eventType = eventType;
+    }
+
+    public Integer getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(Integer messageId) {
+        this.messageId = messageId;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Long getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Long createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    @Override
+    public String toString() {
+        return "OutboxEvent{" +
+                "outboxId=" + outboxId +
+                ", eventType='" + eventType + '\'' +
+                ", messageId=" + messageId +
+                ", payload='" + payload + '\'' +
+                ", createdAt=" + createdAt +
+                '}';
+    }
+}
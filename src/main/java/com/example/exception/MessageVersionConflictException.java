@@ -0,0 +1,16 @@
+package com.example.exception;
+
+/**
+ * Thrown when a message change was made against a version of the message that is no longer current,
+ * i.e. someone else changed the message in the meantime.
+ */
+public class MessageVersionConflictException extends RuntimeException {
+
+    public MessageVersionConflictException(Integer messageId, Long expectedVersion, Long actualVersion) {
+        super("Message " + messageId + " is at version " + actualVersion + ", not " + expectedVersion);
+    }
+
+    public MessageVersionConflictException(Integer messageId, Long expectedVersion) {
+        super("Message " + messageId + " was changed while being changed from version " + expectedVersion);
+    }
+}
@@ -1,17 +1,27 @@
 package com.example.repository;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import com.example.HibernateCacheConfig;
 import com.example.entity.Account;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import javax.persistence.QueryHint;
+import java.util.Collection;
 import java.util.List;
 
 public interface AccountRepository extends JpaRepository<Account, Integer> {
 
     // @Query("FROM Account WHERE username= :username")
+    // results are kept in the query cache, which is invalidated whenever the account table changes
+    @QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+                 @QueryHint(name = "org.hibernate.cacheRegion", value = HibernateCacheConfig.ACCOUNT_BY_USERNAME_REGION)})
     Account findAccountByUsername(String username);
 
     Account findAccountByUsernameAndPassword(String username, String password);
 
+    // the accounts among the given usernames that exist, in one IN query
+    List<Account> findAccountsByUsernameIn(Collection<String> usernames);
+
 
 }
@@ -1,12 +1,54 @@
 package com.example.repository;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import com.example.HibernateCacheConfig;
 import com.example.entity.Message;
 
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
 import java.util.List;
 
 public interface MessageRepository extends JpaRepository<Message, Integer>{
 
+    // results are kept in the query cache, which is invalidated whenever the message table changes
+    @QueryHints({@QueryHint(name = "org.hibernate.cacheable", value = "true"),
+                 @QueryHint(name = "org.hibernate.cacheRegion", value = HibernateCacheConfig.MESSAGES_BY_POSTED_BY_REGION)})
     List<Message> findMessagesByPostedBy(Integer postedBy);
+
+    // messages posted in [since, until) that come after the (time, ID) cursor, oldest first.
+    // Runs as a range scan over the (timePostedEpoch, messageId) index.
+    @Query("FROM Message m WHERE m.timePostedEpoch >= :since AND m.timePostedEpoch < :until"
+            + " AND (m.timePostedEpoch > :afterTime OR (m.timePostedEpoch = :afterTime AND m.messageId > :afterId))"
+            + " ORDER BY m.timePostedEpoch, m.messageId")
+    List<Message> findPostedBetween(@Param("since") Long since, @Param("until") Long until,
+                                    @Param("afterTime") Long afterTime, @Param("afterId") Integer afterId,
+                                    Pageable page);
+
+    // same as findPostedBetween for one account, over the (postedBy, timePostedEpoch, messageId) index
+    @Query("FROM Message m WHERE m.postedBy = :postedBy"
+            + " AND m.timePostedEpoch >= :since AND m.timePostedEpoch < :until"
+            + " AND (m.timePostedEpoch > :afterTime OR (m.timePostedEpoch = :afterTime AND m.messageId > :afterId))"
+            + " ORDER BY m.timePostedEpoch, m.messageId")
+    List<Message> findPostedByBetween(@Param("postedBy") Integer postedBy,
+                                      @Param("since") Long since, @Param("until") Long until,
+                                      @Param("afterTime") Long afterTime, @Param("afterId") Integer afterId,
+                                      Pageable page);
+
+    // [postedBy, number of messages] for every account that has messages
+    @Query("SELECT m.postedBy, COUNT(m) FROM Message m GROUP BY m.postedBy")
+    List<Object[]> countMessagesPerPostedBy();
+
+    // oldest messages first, in batches, for moving them to the archive. The rows are locked until the
+    // transaction ends, so they can't be changed or deleted between being archived and removed.
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    List<Message> findTop500ByTimePostedEpochLessThanOrderByMessageIdAsc(Long timePostedEpoch);
+
+    // IDs of soft deleted messages, lowest first, for the background purge.
+    // Native, since every entity query only ever sees messages that aren't deleted.
+    @Query(value = "SELECT messageId FROM message WHERE deleted = true ORDER BY messageId LIMIT :limit", nativeQuery = true)
+    List<Integer> findDeletedMessageIds(@Param("limit") int limit);
 }
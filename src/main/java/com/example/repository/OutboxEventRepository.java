@@ -0,0 +1,11 @@
+package com.example.repository;
+import org.springframework.data.jpa.repository.JpaRepository;
+import com.example.entity.OutboxEvent;
+
+import java.util.List;
+
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // next batch for the relay, oldest first
+    List<OutboxEvent> findTop100ByOrderByOutboxIdAsc();
+}
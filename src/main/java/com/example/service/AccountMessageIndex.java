@@ -0,0 +1,277 @@
+package com.example.service;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory index of which messages each account has posted. Each account maps to the IDs of
+ * its messages, kept sorted in a primitive int array, so counting an account's messages or paging
+ * through them never loads or boxes the messages themselves.
+ * Archived messages stay in the index, since they are still returned for the account.
+ * The index is kept in sync by the message service whenever a message is created or deleted.
+ * While it is being rebuilt, those changes are also recorded and replayed onto the rebuilt index
+ * when it is swapped in, so a change made while the messages were being loaded isn't lost.
+ */
+@Component
+public class AccountMessageIndex {
+
+    // account ID -> IDs of the account's messages
+    private Map<Integer, AccountMessages> byPostedBy = new HashMap<>();
+    private int total;
+    // bumped on every change, so a reader can tell whether the index changed in between
+    private long version;
+    // changes made since a rebuild began. null when there is no rebuild.
+    private List<Change> pending;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // held by the thread rebuilding the index, from beginRebuild until rebuild or cancelRebuild
+    private final ReentrantLock rebuilding = new ReentrantLock();
+
+    /**
+     * Adds a message to its account's entry.
+     * @param msg
+     */
+    public void add(Message msg) {
+        if (msg == null || msg.getMessageId() == null || msg.getPostedBy() == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            this.apply(new Change(true, msg.getMessageId(), msg.getPostedBy()));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a message from its account's entry.
+     * @param msgId
+     * @param postedBy
+     */
+    public void remove(Integer msgId, Integer postedBy) {
+        if (msgId == null || postedBy == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            this.apply(new Change(false, msgId, postedBy));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(Change change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+        total += change.applyTo(byPostedBy);
+        version++;
+    }
+
+    /**
+     * Starts recording changes for a rebuild. Call it before loading the messages to rebuild from,
+     * then rebuild (or cancelRebuild if the load failed). Only one rebuild runs at a time.
+     */
+    public void beginRebuild() {
+        rebuilding.lock();
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops recording changes without rebuilding.
+     */
+    public void cancelRebuild() {
+        lock.writeLock().lock();
+        try {
+            pending = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        rebuilding.unlock();
+    }
+
+    /**
+     * Replaces everything in the index with the given messages. The new index is built aside and
+     * swapped in at once, so readers never see it half built. The changes made since beginRebuild,
+     * which the messages may or may not include, are replayed onto it first.
+     * @param msgs
+     */
+    public void rebuild(Collection<Message> msgs) {
+        try {
+            Map<Integer, AccountMessages> rebuilt = new HashMap<>();
+            int rebuiltTotal = 0;
+            for (Message msg : msgs) {
+                if (msg != null && msg.getMessageId() != null && msg.getPostedBy() != null) {
+                    rebuiltTotal += new Change(true, msg.getMessageId(), msg.getPostedBy()).applyTo(rebuilt);
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                if (pending != null) {
+                    for (Change change : pending) {
+                        rebuiltTotal += change.applyTo(rebuilt);
+                    }
+                    pending = null;
+                }
+                byPostedBy = rebuilt;
+                total = rebuiltTotal;
+                version++;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            if (rebuilding.isHeldByCurrentThread()) {
+                rebuilding.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return a number that changes whenever the index does
+     */
+    public long version() {
+        lock.readLock().lock();
+        try {
+            return version;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param postedBy account ID
+     * @return number of messages posted by the account
+     */
+    public int count(Integer postedBy) {
+        lock.readLock().lock();
+        try {
+            AccountMessages msgs = byPostedBy.get(postedBy);
+            return msgs == null ? 0 : msgs.size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return number of messages across all accounts
+     */
+    public int totalCount() {
+        lock.readLock().lock();
+        try {
+            return total;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Gets a page of an account's message IDs in ID order, starting after a cursor.
+     * @param postedBy account ID
+     * @param afterId cursor: only IDs greater than this are returned. null to start at the beginning.
+     * @param limit max number of IDs to return
+     * @return the IDs of the page. Empty once the end is reached.
+     */
+    public int[] page(Integer postedBy, Integer afterId, int limit) {
+        lock.readLock().lock();
+        try {
+            AccountMessages msgs = byPostedBy.get(postedBy);
+            if (msgs == null || limit <= 0) {
+                return new int[0];
+            }
+            int from = afterId == null ? 0 : msgs.firstAfter(afterId);
+            return Arrays.copyOfRange(msgs.ids, from, Math.min(from + limit, msgs.size));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * A message added to or removed from its account's entry.
+     */
+    private static class Change {
+        final boolean add;
+        final int msgId;
+        final int postedBy;
+
+        Change(boolean add, int msgId, int postedBy) {
+            this.add = add;
+            this.msgId = msgId;
+            this.postedBy = postedBy;
+        }
+
+        /**
+         * @return how much the total changed by: 1, -1, or 0 if the change was already there
+         */
+        int applyTo(Map<Integer, AccountMessages> byPostedBy) {
+            if (add) {
+                return byPostedBy.computeIfAbsent(postedBy, k -> new AccountMessages()).add(msgId) ? 1 : 0;
+            }
+            AccountMessages msgs = byPostedBy.get(postedBy);
+            if (msgs == null || !msgs.remove(msgId)) {
+                return 0;
+            }
+            if (msgs.size == 0) {
+                byPostedBy.remove(postedBy);
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * An account's message IDs as a primitive array sorted by message ID.
+     */
+    private static class AccountMessages {
+        int[] ids = new int[4];
+        int size;
+
+        /**
+         * @return true if the message wasn't in the list yet
+         */
+        boolean add(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                return false;
+            }
+            pos = -pos - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            ids[pos] = id;
+            size++;
+            return true;
+        }
+
+        boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        /**
+         * @return position of the first ID greater than the given one
+         */
+        int firstAfter(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            return pos >= 0 ? pos + 1 : -pos - 1;
+        }
+    }
+}
@@ -1,19 +1,38 @@
 package com.example.service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.example.entity.Account;
 import com.example.repository.AccountRepository;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
 @Service
 public class AccountService {
 
+    /**
+     * What happened to one account of a batch registration.
+     */
+    public enum RegistrationOutcome { REGISTERED, USERNAME_TAKEN, INVALID }
+
     // A repository that serves as the DAO for Account related actions
     AccountRepository accRep;
+    InputValidator validator;
+    TransactionTemplate transactionTemplate;
 
     @Autowired
-    public AccountService(AccountRepository accRep) {
+    public AccountService(AccountRepository accRep, InputValidator validator,
+                          PlatformTransactionManager transactionManager) {
         this.accRep = accRep;
+        this.validator = validator;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
     }
 
     /**
@@ -39,25 +58,103 @@ public class AccountService {
      * Registration will fail and return null if:
      *  - username is blank
      *  - passowrd is < 4 chars long
+     *  - either is too long or not well formed (see InputValidator)
      * @param acc
      * @return the persisted account
      */
     public Account persistAccount(Account acc) {
-        // guard statements //
-        String username = acc.getUsername();
-        if (username == "" || username == null)
+        // guard statement
+        if (!this.validator.isValidCredentials(acc.getUsername(), acc.getPassword()))
             return null;
-        
-        String password = acc.getPassword();
-        if(password.length() < 4)
-            return null;
-        // end of guard statements //
 
         // account credentials are valid and will be passed onto the repository
         // to be registered
         return this.accRep.save(acc);
     }
 
+    /**
+     * Registers many accounts at once with the same rules as one at a time: an account with an
+     * invalid username or password is refused, then so is a username that is already taken (also by
+     * an earlier account of the batch). The usernames of the valid accounts are checked in one query
+     * and the new accounts are inserted together in JDBC batches.
+     * If one of the usernames is registered by someone else in the meantime, the batch is rolled back
+     * and the accounts are registered one at a time instead, so only that account is refused.
+     * @param accs the accounts to register. Registered ones get their ID set.
+     * @return the outcome for each account, in the same order
+     */
+    public List<RegistrationOutcome> persistAccounts(List<Account> accs) {
+        try {
+            return this.transactionTemplate.execute(status -> this.saveBatch(accs));
+        } catch (DataIntegrityViolationException e) {
+            // a username was taken concurrently; nothing of the batch was saved
+            List<RegistrationOutcome> outcomes = new ArrayList<>(accs.size());
+            for (Account acc : accs) {
+                acc.setAccountId(null);
+                outcomes.add(this.saveOne(acc));
+            }
+            return outcomes;
+        }
+    }
+
+    private List<RegistrationOutcome> saveBatch(List<Account> accs) {
+        Set<String> usernames = new HashSet<>();
+        for (Account acc : accs) {
+            if (this.validator.isValidCredentials(acc.getUsername(), acc.getPassword())) {
+                usernames.add(acc.getUsername());
+            }
+        }
+        Set<String> taken = new HashSet<>();
+        if (!usernames.isEmpty()) {
+            for (Account existing : this.accRep.findAccountsByUsernameIn(usernames)) {
+                taken.add(existing.getUsername());
+            }
+        }
+
+        List<RegistrationOutcome> outcomes = new ArrayList<>();
+        List<Account> toSave = new ArrayList<>();
+        for (Account acc : accs) {
+            String username = acc.getUsername();
+            if (!this.validator.isValidCredentials(username, acc.getPassword())) {
+                outcomes.add(RegistrationOutcome.INVALID);
+            } else if (taken.contains(username)) {
+                outcomes.add(RegistrationOutcome.USERNAME_TAKEN);
+            } else {
+                taken.add(username);
+                toSave.add(acc);
+                outcomes.add(RegistrationOutcome.REGISTERED);
+            }
+        }
+        this.accRep.saveAll(toSave);
+        return outcomes;
+    }
+
+    private RegistrationOutcome saveOne(Account acc) {
+        if (!this.validator.isValidCredentials(acc.getUsername(), acc.getPassword())) {
+            return RegistrationOutcome.INVALID;
+        }
+        try {
+            return this.transactionTemplate.execute(status -> {
+                if (this.usernameAlreadyExists(acc.getUsername())) {
+                    return RegistrationOutcome.USERNAME_TAKEN;
+                }
+                this.accRep.saveAndFlush(acc);
+                return RegistrationOutcome.REGISTERED;
+            });
+        } catch (DataIntegrityViolationException e) {
+            acc.setAccountId(null);
+            return RegistrationOutcome.USERNAME_TAKEN;
+        }
+    }
+
+    /**
+     * Looks up many accounts by ID in one query.
+     * @param accIds
+     * @return the accounts that were found, in no particular order
+     */
+    public List<Account> getAccountsByIds(List<Integer> accIds) {
+        return this.accRep.findAllById(accIds);
+    }
+
     /**
      * Retrieves an account from the database if account credentials matches an account in the database 
      * @param acc
@@ -67,7 +164,12 @@ public class AccountService {
         String username = acc.getUsername();
         String password = acc.getPassword();
 
-        return this.accRep.findAccountByUsernameAndPassword(username, password);
+        // look up by username alone so the lookup is served from the query cache
+        Account found = this.accRep.findAccountByUsername(username);
+        if (found == null || !Objects.equals(found.getPassword(), password)) {
+            return null;
+        }
+        return found;
     }
 
 }
@@ -0,0 +1,195 @@
+package com.example.service;
+import org.hibernate.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.example.entity.Message;
+import com.example.repository.MessageRepository;
+
+import javax.annotation.PreDestroy;
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.time.LocalTime;
+import java.util.List;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Physically removes soft deleted messages.
+ *
+ * Deleting a message only marks its row deleted, which is a single cheap UPDATE and keeps the
+ * DELETE request fast at peak. This purge removes the marked rows later in the background, in
+ * small batches with a pause between them so it never holds locks for long, and only inside the
+ * configured off-peak window: 01:00-05:00 unless set otherwise (it may wrap past midnight). With the
+ * window set empty it may run at any time.
+ *
+ * The rows are deleted with plain JDBC rather than through Hibernate. A bulk delete through
+ * Hibernate would empty the whole message cache region, while soft deleted messages were already
+ * evicted when they were deleted; only their own IDs are evicted again, to be safe.
+ *
+ * A run pauses between batches, so it runs on a thread of its own: the shared scheduler thread
+ * only hands it over, and is never held up by the purge. A tick that comes while a run is still
+ * going is skipped.
+ */
+@Component
+public class DeletedMessagePurger {
+
+    private static final Logger log = LoggerFactory.getLogger(DeletedMessagePurger.class);
+
+    private final MessageRepository msgRep;
+    private final EntityManager entityManager;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int batchSize;
+    private final int maxBatchesPerRun;
+    private final long batchPauseMillis;
+    // null when there is no off-peak window
+    private final LocalTime windowStart;
+    private final LocalTime windowEnd;
+
+    private final AtomicLong purged = new AtomicLong();
+    private final ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new SynchronousQueue<>(), r -> {
+                Thread t = new Thread(r, "deleted-message-purger");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    public DeletedMessagePurger(MessageRepository msgRep, EntityManager entityManager,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${app.soft-delete.purge.enabled:true}") boolean enabled,
+                                @Value("${app.soft-delete.purge.batch-size:500}") int batchSize,
+                                @Value("${app.soft-delete.purge.max-batches-per-run:20}") int maxBatchesPerRun,
+                                @Value("${app.soft-delete.purge.batch-pause-ms:100}") long batchPauseMillis,
+                                @Value("${app.soft-delete.purge.window:01:00-05:00}") String window) {
+        this.msgRep = msgRep;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.batchSize = batchSize;
+        this.maxBatchesPerRun = maxBatchesPerRun;
+        this.batchPauseMillis = batchPauseMillis;
+        if (window.isBlank()) {
+            this.windowStart = null;
+            this.windowEnd = null;
+        } else {
+            String[] bounds = window.split("-");
+            if (bounds.length != 2) {
+                throw new IllegalArgumentException("app.soft-delete.purge.window must look like 01:00-05:00, was " + window);
+            }
+            this.windowStart = LocalTime.parse(bounds[0].trim());
+            this.windowEnd = LocalTime.parse(bounds[1].trim());
+        }
+    }
+
+    /**
+     * Starts a purge on the purger's own thread, unless one is still running. Called by the scheduler.
+     */
+    @Scheduled(fixedDelayString = "${app.soft-delete.purge.interval-ms:60000}",
+               initialDelayString = "${app.soft-delete.purge.interval-ms:60000}")
+    public void schedulePurge() {
+        worker.execute(this::purge);
+    }
+
+    /**
+     * Purges soft deleted messages if it is off-peak.
+     * @return number of messages purged
+     */
+    public int purge() {
+        if (!enabled || !this.isOffPeak(LocalTime.now())) {
+            return 0;
+        }
+        return this.purgeNow();
+    }
+
+    /**
+     * Purges soft deleted messages regardless of the time of day, up to the batch limit of one run.
+     * Each batch is its own short transaction.
+     * @return number of messages purged
+     */
+    public int purgeNow() {
+        int purgedNow = 0;
+        for (int batches = 0; batches < maxBatchesPerRun; batches++) {
+            List<Integer> ids = msgRep.findDeletedMessageIds(batchSize);
+            if (ids.isEmpty()) {
+                break;
+            }
+            purgedNow += transactionTemplate.execute(status -> this.deleteRows(ids));
+            if (ids.size() < batchSize) {
+                break;
+            }
+            try {
+                Thread.sleep(batchPauseMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (purgedNow > 0) {
+            purged.addAndGet(purgedNow);
+            log.info("Purged {} soft deleted messages", purgedNow);
+        }
+        return purgedNow;
+    }
+
+    /**
+     * Deletes the rows of the given soft deleted messages in one JDBC batch and evicts just those
+     * messages from the second-level cache.
+     * @return number of rows deleted
+     */
+    private int deleteRows(List<Integer> ids) {
+        Session session = entityManager.unwrap(Session.class);
+        int deleted = session.doReturningWork(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM message WHERE messageId = ? AND deleted = true")) {
+                for (Integer id : ids) {
+                    delete.setInt(1, id);
+                    delete.addBatch();
+                }
+                int rows = 0;
+                for (int count : delete.executeBatch()) {
+                    rows += Math.max(count, 0);
+                }
+                return rows;
+            }
+        });
+        for (Integer id : ids) {
+            session.getSessionFactory().getCache().evictEntityData(Message.class, id);
+        }
+        return deleted;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        worker.shutdownNow();
+    }
+
+    /**
+     * @return total number of messages purged since startup
+     */
+    public long getPurgedCount() {
+        return purged.get();
+    }
+
+    /**
+     * @param time
+     * @return true if the time is inside the off-peak window, or there is no window
+     */
+    public boolean isOffPeak(LocalTime time) {
+        if (windowStart == null) {
+            return true;
+        }
+        if (!windowStart.isAfter(windowEnd)) {
+            return !time.isBefore(windowStart) && time.isBefore(windowEnd);
+        }
+        // the window wraps past midnight
+        return !time.isBefore(windowStart) || time.isBefore(windowEnd);
+    }
+}
@@ -0,0 +1,46 @@
+package com.example.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.OutboxEvent;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * Delivers outbox events by appending them as JSON lines to a local file.
+ */
+@Component
+@ConditionalOnProperty(name = "app.outbox.sink", havingValue = "file")
+public class FileOutboxSink implements OutboxSink {
+
+    private final Path file;
+    private final ObjectMapper objectMapper;
+
+    public FileOutboxSink(@Value("${app.outbox.file:outbox.jsonl}") String file, ObjectMapper objectMapper) {
+        this.file = Paths.get(file);
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void send(List<OutboxEvent> events) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (OutboxEvent event : events) {
+            lines.append(objectMapper.writeValueAsString(event)).append('\n');
+        }
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (FileOutputStream out = new FileOutputStream(file.toFile(), true)) {
+            out.write(lines.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+}
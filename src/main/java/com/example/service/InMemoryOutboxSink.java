@@ -0,0 +1,43 @@
+package com.example.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.OutboxEvent;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Delivers outbox events to an in-memory queue, standing in for a message broker.
+ * This is the default sink.
+ * The queue is bounded. A batch that doesn't fit is refused as a whole, so it stays in the outbox
+ * and is retried once consumers have caught up, instead of the queue growing without limit. The
+ * capacity should be at least the relay's batch size of 100.
+ */
+@Component
+@ConditionalOnProperty(name = "app.outbox.sink", havingValue = "memory", matchIfMissing = true)
+public class InMemoryOutboxSink implements OutboxSink {
+
+    private final BlockingQueue<OutboxEvent> queue;
+
+    public InMemoryOutboxSink(@Value("${app.outbox.memory.capacity:10000}") int capacity) {
+        this.queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public synchronized void send(List<OutboxEvent> events) {
+        if (queue.remainingCapacity() < events.size()) {
+            throw new IllegalStateException("Outbox queue is full, " + queue.size() + " events not yet consumed");
+        }
+        queue.addAll(events);
+    }
+
+    /**
+     * @return the queue consumers take delivered events from
+     */
+    public BlockingQueue<OutboxEvent> getQueue() {
+        return queue;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.service;
+import org.springframework.stereotype.Component;
+
+/**
+ * The rules for what clients may send, in one place: message text, usernames and passwords.
+ *
+ * The controller checks a request body with these before doing anything else, so an invalid
+ * request is refused without a single database call. The services apply the same rules to
+ * their other callers.
+ *
+ * Lengths are in chars, the unit the database columns are sized in. Beyond length, text must be
+ * well formed UTF-16 (no unpaired surrogates) and free of control characters; message text may
+ * contain line breaks and tabs. Every check is one pass over the string and allocates nothing
+ * (no trim, split or regex), so checking the common, valid request costs next to nothing.
+ */
+@Component
+public class InputValidator {
+
+    public static final int MAX_MESSAGE_LENGTH = 255;
+    public static final int MAX_USERNAME_LENGTH = 255;
+    public static final int MIN_PASSWORD_LENGTH = 4;
+    public static final int MAX_PASSWORD_LENGTH = 255;
+
+    /**
+     * @param text
+     * @return true if the text is not blank, at most 255 chars and well formed
+     */
+    public boolean isValidMessageText(String text) {
+        return isValidText(text, 1, MAX_MESSAGE_LENGTH, true, true);
+    }
+
+    /**
+     * @param username
+     * @return true if the username is not blank, at most 255 chars, well formed and on one line
+     */
+    public boolean isValidUsername(String username) {
+        return isValidText(username, 1, MAX_USERNAME_LENGTH, true, false);
+    }
+
+    /**
+     * @param password
+     * @return true if the password is 4 to 255 chars, well formed and on one line. It may be all spaces.
+     */
+    public boolean isValidPassword(String password) {
+        return isValidText(password, MIN_PASSWORD_LENGTH, MAX_PASSWORD_LENGTH, false, false);
+    }
+
+    /**
+     * @param username
+     * @param password
+     * @return true if both could belong to a registered account
+     */
+    public boolean isValidCredentials(String username, String password) {
+        return this.isValidUsername(username) && this.isValidPassword(password);
+    }
+
+    private static boolean isValidText(String text, int minLength, int maxLength,
+                                       boolean mustNotBeBlank, boolean allowLineBreaks) {
+        if (text == null) {
+            return false;
+        }
+        int length = text.length();
+        if (length < minLength || length > maxLength) {
+            return false;
+        }
+        boolean blank = true;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (Character.isHighSurrogate(c)) {
+                // must be followed by its low surrogate; supplementary characters are never whitespace
+                if (i + 1 == length || !Character.isLowSurrogate(text.charAt(i + 1))) {
+                    return false;
+                }
+                i++;
+                blank = false;
+            } else if (Character.isLowSurrogate(c)) {
+                return false;
+            } else if (Character.isISOControl(c)) {
+                if (!allowLineBreaks || (c != '\n' && c != '\r' && c != '\t')) {
+                    return false;
+                }
+            } else if (blank && !Character.isWhitespace(c) && !Character.isSpaceChar(c)) {
+                blank = false;
+            }
+        }
+        return !mustNotBeBlank || !blank;
+    }
+}
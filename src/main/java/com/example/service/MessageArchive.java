@@ -0,0 +1,731 @@
+package com.example.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.Message;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold storage for old messages. Messages moved out of the message table are written to
+ * append-only segment files on disk that are memory-mapped for reading.
+ *
+ * A segment holds messages sorted by ID in deflate-compressed blocks, followed by a footer that
+ * lists the first message ID and offset of every block. Each segment's footer is loaded as a sparse
+ * in-memory index, so finding an archived message means checking which segments' ID ranges cover
+ * it, one map lookup in each, and decompressing a single block.
+ *
+ * Every archiving batch writes a new segment. Segments are compacted in the background, on the
+ * archive's own thread, so the archiving job (and the row locks its transaction holds) never waits
+ * for it: the newest segment is merged into the one before it whenever it has grown to at least half
+ * that one's size, or whenever there are more than max-segments. A message is so only rewritten a
+ * logarithmic number of times, and a lookup never has more than a handful of segments to check.
+ * A merge streams through its segments block by block, so it never holds more than one block of each
+ * in memory. Segments are never changed in place, so a deleted archived message is recorded as a
+ * tombstone (its ID, appended to the tombstone file) and hidden from every read; compaction drops
+ * it for good.
+ *
+ * Segment layout:
+ *   [magic][block]...[block][footer: (firstId, offset, length) per block][block count][footer offset][magic]
+ *   block: [uncompressed length][compressed bytes]
+ */
+@Component
+public class MessageArchive {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageArchive.class);
+    private static final int MAGIC = 0x4D534753; // "MSGS"
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String TOMBSTONES = "deleted.ids";
+    // segments are mapped in windows of this size, plus the largest block
+    private static final long MAP_WINDOW_BYTES = 1L << 30;
+
+    private final boolean enabled;
+    private final Path dir;
+    private final int recordsPerBlock;
+    private final long olderThanSeconds;
+    private final int maxSegments;
+
+    // mapped segments, oldest first
+    private final List<Segment> segments = new ArrayList<>();
+    // account ID -> IDs of that account's archived messages (a message may be in two segments after
+    // a crash during compaction, hence sets)
+    private final Map<Integer, Set<Integer>> idsByPostedBy = new HashMap<>();
+    // IDs of archived messages that have been deleted
+    private final Set<Integer> deletedIds = new HashSet<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // runs compactions one at a time; at most one more is queued behind a running one
+    private final ThreadPoolExecutor compactor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> {
+                Thread t = new Thread(r, "message-archive-compactor");
+                t.setDaemon(true);
+                return t;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+
+    public MessageArchive(@Value("${app.archive.enabled:false}") boolean enabled,
+                          @Value("${app.archive.dir:archive}") String dir,
+                          @Value("${app.archive.records-per-block:64}") int recordsPerBlock,
+                          @Value("${app.archive.older-than-days:365}") long olderThanDays,
+                          @Value("${app.archive.max-segments:8}") int maxSegments) {
+        this.enabled = enabled;
+        this.dir = Paths.get(dir);
+        this.recordsPerBlock = recordsPerBlock;
+        this.olderThanSeconds = olderThanDays * 24 * 60 * 60;
+        this.maxSegments = maxSegments;
+    }
+
+    /**
+     * Maps the segments already on disk and rebuilds the indexes from them.
+     */
+    @PostConstruct
+    public void load() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(dir);
+        Path tombstones = dir.resolve(TOMBSTONES);
+        if (Files.exists(tombstones)) {
+            ByteBuffer ids = ByteBuffer.wrap(Files.readAllBytes(tombstones));
+            // a torn last write leaves fewer than 4 bytes, which are ignored
+            while (ids.remaining() >= 4) {
+                deletedIds.add(ids.getInt());
+            }
+        }
+        try (DirectoryStream<Path> segments = Files.newDirectoryStream(dir, "*" + SEGMENT_SUFFIX)) {
+            for (Path segment : segments) {
+                this.register(this.mapSegment(segment));
+            }
+        }
+    }
+
+    /**
+     * @return true if archiving is turned on
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return messages posted before this epoch second are old enough to be archived
+     */
+    public long getCutoffEpochSecond() {
+        return System.currentTimeMillis() / 1000 - olderThanSeconds;
+    }
+
+    /**
+     * Writes messages to a new segment. The segment only becomes visible once it is fully
+     * written, so a crash never leaves a half written segment behind. Starts a compaction in the
+     * background, without waiting for it. Only the archiving job appends, so appends never overlap.
+     * @param msgs messages to archive, sorted by ID
+     */
+    public void append(List<Message> msgs) throws IOException {
+        if (msgs.isEmpty()) {
+            return;
+        }
+        this.register(this.mapSegment(this.writeSegment(msgs.iterator())));
+        compactor.execute(this::compactQuietly);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        compactor.shutdownNow();
+    }
+
+    /**
+     * Deletes an archived message. The segments aren't changed; the ID is recorded (durably) as a
+     * tombstone and the message is hidden from then on.
+     * @param msgId
+     * @return the deleted message. null if it isn't archived.
+     */
+    public Message delete(Integer msgId) throws IOException {
+        Message msg = this.find(msgId);
+        if (msg == null) {
+            return null;
+        }
+        lock.writeLock().lock();
+        try {
+            if (!deletedIds.add(msgId)) {
+                // deleted by someone else in the meantime
+                return null;
+            }
+            try (FileChannel channel = FileChannel.open(dir.resolve(TOMBSTONES), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                writeFully(channel, ByteBuffer.allocate(4).putInt(msgId).flip());
+                channel.force(false);
+            } catch (IOException e) {
+                deletedIds.remove(msgId);
+                throw e;
+            }
+            Set<Integer> ids = idsByPostedBy.get(msg.getPostedBy());
+            if (ids != null) {
+                ids.remove(msgId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return msg;
+    }
+
+    private void compactQuietly() {
+        try {
+            this.compact();
+        } catch (IOException | UncheckedIOException e) {
+            // the segments are all still there, and the next append tries again
+            log.warn("Could not compact the message archive", e);
+        }
+    }
+
+    /**
+     * Merges the newest segment into the one before it for as long as it is at least half that
+     * one's size, or there are more than max-segments, leaving out deleted messages. Each merge
+     * removes the two old segment files and the tombstones no segment needs any more. A crash part
+     * way leaves either the old segments or both; messages that are in two segments are only
+     * counted once.
+     */
+    private void compact() throws IOException {
+        while (true) {
+            List<Segment> merging;
+            List<Segment> others;
+            Set<Integer> deleted;
+            lock.readLock().lock();
+            try {
+                int count = segments.size();
+                if (count < 2) {
+                    return;
+                }
+                Segment newest = segments.get(count - 1);
+                Segment previous = segments.get(count - 2);
+                if (count <= maxSegments && newest.size * 2 < previous.size) {
+                    return;
+                }
+                merging = List.of(previous, newest);
+                others = new ArrayList<>(segments.subList(0, count - 2));
+                deleted = new HashSet<>(deletedIds);
+            } finally {
+                lock.readLock().unlock();
+            }
+            this.merge(merging, others, deleted);
+        }
+    }
+
+    private void merge(List<Segment> merging, List<Segment> others, Set<Integer> deleted) throws IOException {
+        Path file = this.writeSegment(new MergingIterator(merging, deleted));
+        Segment merged = file == null ? null : this.mapSegment(file);
+
+        // a tombstone is only still needed if the message is in another segment too (after a crash
+        // during compaction); segments appended since hold newly archived, so undeleted, messages
+        Set<Integer> dropped = new HashSet<>();
+        for (Integer id : deleted) {
+            if (this.containsId(merging, id) && !this.containsId(others, id)) {
+                dropped.add(id);
+            }
+        }
+
+        lock.writeLock().lock();
+        try {
+            int at = segments.indexOf(merging.get(0));
+            segments.removeAll(merging);
+            if (merged != null) {
+                // every message in it is already indexed by account
+                merged.idsByPostedBy.clear();
+                segments.add(at, merged);
+            }
+            for (Segment segment : merging) {
+                Files.deleteIfExists(segment.file);
+            }
+            if (!dropped.isEmpty()) {
+                deletedIds.removeAll(dropped);
+                ByteBuffer ids = ByteBuffer.allocate(4 * deletedIds.size());
+                for (Integer id : deletedIds) {
+                    ids.putInt(id);
+                }
+                Path tmp = dir.resolve(TOMBSTONES + ".tmp");
+                Files.write(tmp, ids.array());
+                Files.move(tmp, dir.resolve(TOMBSTONES), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean containsId(List<Segment> candidates, Integer msgId) {
+        for (Segment segment : candidates) {
+            if (msgId >= segment.minId && msgId <= segment.maxId) {
+                for (Message msg : readBlock(segment.blocks.floorEntry(msgId).getValue())) {
+                    if (msg.getMessageId().equals(msgId)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes messages to a new segment, a block at a time.
+     * @param msgs messages sorted by ID
+     * @return the segment. null if there were no messages.
+     */
+    private Path writeSegment(Iterator<Message> msgs) throws IOException {
+        List<Message> blockMsgs = nextBlock(msgs);
+        if (blockMsgs.isEmpty()) {
+            return null;
+        }
+        // compaction may write a segment starting at the same ID within the same millisecond
+        long stamp = System.currentTimeMillis();
+        Path segment;
+        while (Files.exists(segment = dir.resolve(String.format("segment-%010d-%d%s",
+                blockMsgs.get(0).getMessageId(), stamp, SEGMENT_SUFFIX)))) {
+            stamp++;
+        }
+        Path tmp = dir.resolve(segment.getFileName() + ".tmp");
+
+        ByteArrayOutputStream footer = new ByteArrayOutputStream();
+        DataOutputStream footerOut = new DataOutputStream(footer);
+        int blockCount = 0;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, ByteBuffer.allocate(4).putInt(MAGIC).flip());
+            for (; !blockMsgs.isEmpty(); blockMsgs = nextBlock(msgs)) {
+                byte[] block = compressBlock(blockMsgs);
+                footerOut.writeInt(blockMsgs.get(0).getMessageId());
+                footerOut.writeLong(channel.position());
+                footerOut.writeInt(block.length);
+                writeFully(channel, ByteBuffer.wrap(block));
+                blockCount++;
+            }
+            long footerOffset = channel.position();
+            footerOut.writeInt(blockCount);
+            footerOut.writeLong(footerOffset);
+            footerOut.writeInt(MAGIC);
+            writeFully(channel, ByteBuffer.wrap(footer.toByteArray()));
+            channel.force(true);
+        }
+        Files.move(tmp, segment, StandardCopyOption.ATOMIC_MOVE);
+        return segment;
+    }
+
+    private List<Message> nextBlock(Iterator<Message> msgs) {
+        List<Message> blockMsgs = new ArrayList<>(recordsPerBlock);
+        while (blockMsgs.size() < recordsPerBlock && msgs.hasNext()) {
+            blockMsgs.add(msgs.next());
+        }
+        return blockMsgs;
+    }
+
+    /**
+     * Looks up an archived message.
+     * @param msgId
+     * @return the message. null if it isn't archived.
+     */
+    public Message find(Integer msgId) {
+        if (!enabled || msgId == null) {
+            return null;
+        }
+        List<BlockRef> candidates = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            if (deletedIds.contains(msgId)) {
+                return null;
+            }
+            // segments written at different times can have overlapping ID ranges
+            for (Segment segment : segments) {
+                if (msgId >= segment.minId && msgId <= segment.maxId) {
+                    candidates.add(segment.blocks.floorEntry(msgId).getValue());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (BlockRef block : candidates) {
+            for (Message msg : readBlock(block)) {
+                if (msg.getMessageId().equals(msgId)) {
+                    return msg;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets every archived message posted by an account.
+     * @param accId
+     * @return the messages sorted by ID. Empty if there are none.
+     */
+    public List<Message> findByPostedBy(Integer accId) {
+        List<Message> msgs = new ArrayList<>();
+        if (!enabled) {
+            return msgs;
+        }
+        List<Integer> ids;
+        lock.readLock().lock();
+        try {
+            ids = new ArrayList<>(idsByPostedBy.getOrDefault(accId, Collections.emptySet()));
+        } finally {
+            lock.readLock().unlock();
+        }
+        Collections.sort(ids);
+        for (Integer id : ids) {
+            Message msg = this.find(id);
+            if (msg != null) {
+                msgs.add(msg);
+            }
+        }
+        return msgs;
+    }
+
+    /**
+     * @return account ID -> number of archived messages it has
+     */
+    public Map<Integer, Long> countByPostedBy() {
+        Map<Integer, Long> counts = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            for (Map.Entry<Integer, Set<Integer>> e : idsByPostedBy.entrySet()) {
+                if (!e.getValue().isEmpty()) {
+                    counts.put(e.getKey(), (long) e.getValue().size());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return counts;
+    }
+
+    /**
+     * Reads every archived message, e.g. to rebuild an index at startup.
+     * @return the messages, segment by segment. Empty if there are none.
+     */
+    public List<Message> findAll() {
+        List<Message> msgs = new ArrayList<>();
+        if (!enabled) {
+            return msgs;
+        }
+        List<Segment> mapped;
+        Set<Integer> deleted;
+        lock.readLock().lock();
+        try {
+            mapped = new ArrayList<>(segments);
+            deleted = new HashSet<>(deletedIds);
+        } finally {
+            lock.readLock().unlock();
+        }
+        Set<Integer> seen = new HashSet<>();
+        for (Segment segment : mapped) {
+            for (BlockRef block : segment.blocks.values()) {
+                for (Message msg : readBlock(block)) {
+                    if (!deleted.contains(msg.getMessageId()) && seen.add(msg.getMessageId())) {
+                        msgs.add(msg);
+                    }
+                }
+            }
+        }
+        return msgs;
+    }
+
+    /**
+     * @return number of segment files, for reporting
+     */
+    public int segmentCount() {
+        lock.readLock().lock();
+        try {
+            return segments.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Segment mapSegment(Path segment) throws IOException {
+        Segment mapped;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < 20 || readAt(channel, 0, 4).getInt() != MAGIC) {
+                throw new IOException("Corrupt archive segment " + segment);
+            }
+            ByteBuffer trailer = readAt(channel, size - 16, 16);
+            int blockCount = trailer.getInt();
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || blockCount < 0 || footerOffset + 16L * blockCount != size - 16) {
+                throw new IOException("Corrupt archive segment " + segment);
+            }
+            ByteBuffer footer = readAt(channel, footerOffset, 16 * blockCount);
+            int maxLength = 0;
+            for (int i = 0; i < blockCount; i++) {
+                maxLength = Math.max(maxLength, footer.getInt(i * 16 + 12));
+            }
+
+            // a mapping can't be larger than 2 GB, so the segment is mapped in windows, each overlapping
+            // the next by the largest block so that every block lies wholly in the window it starts in
+            List<MappedByteBuffer> windows = new ArrayList<>();
+            for (long start = 0; start < footerOffset; start += MAP_WINDOW_BYTES) {
+                windows.add(channel.map(FileChannel.MapMode.READ_ONLY, start,
+                        Math.min(MAP_WINDOW_BYTES + maxLength, footerOffset - start)));
+            }
+            mapped = new Segment(segment, size);
+            for (int i = 0; i < blockCount; i++) {
+                int firstId = footer.getInt();
+                long offset = footer.getLong();
+                int length = footer.getInt();
+                mapped.blocks.put(firstId, new BlockRef(windows.get((int) (offset / MAP_WINDOW_BYTES)),
+                        (int) (offset % MAP_WINDOW_BYTES), length));
+            }
+        }
+        if (mapped.blocks.isEmpty()) {
+            return mapped;
+        }
+        mapped.minId = mapped.blocks.firstKey();
+
+        // read the blocks once to learn the last ID and which accounts the messages belong to
+        for (BlockRef block : mapped.blocks.values()) {
+            for (Message msg : readBlock(block)) {
+                mapped.maxId = Math.max(mapped.maxId, msg.getMessageId());
+                mapped.idsByPostedBy.computeIfAbsent(msg.getPostedBy(), k -> new ArrayList<>()).add(msg.getMessageId());
+            }
+        }
+        return mapped;
+    }
+
+    /**
+     * Makes a mapped segment visible to reads.
+     */
+    private void register(Segment mapped) {
+        if (mapped.blocks.isEmpty()) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            segments.add(mapped);
+            for (Map.Entry<Integer, List<Integer>> e : mapped.idsByPostedBy.entrySet()) {
+                Set<Integer> ids = idsByPostedBy.computeIfAbsent(e.getKey(), k -> new HashSet<>());
+                for (Integer id : e.getValue()) {
+                    if (!deletedIds.contains(id)) {
+                        ids.add(id);
+                    }
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        mapped.idsByPostedBy.clear();
+    }
+
+    private byte[] compressBlock(List<Message> msgs) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(raw);
+        out.writeInt(msgs.size());
+        for (Message msg : msgs) {
+            MessageCodec.write(out, msg);
+        }
+        byte[] uncompressed = raw.toByteArray();
+
+        Deflater deflater = new Deflater();
+        deflater.setInput(uncompressed);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        DataOutputStream compressedOut = new DataOutputStream(compressed);
+        compressedOut.writeInt(uncompressed.length);
+        byte[] chunk = new byte[4096];
+        while (!deflater.finished()) {
+            compressedOut.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        return compressed.toByteArray();
+    }
+
+    private static List<Message> readBlock(BlockRef block) {
+        ByteBuffer view = block.segment.duplicate();
+        view.position(block.offset).limit(block.offset + block.length);
+        int uncompressedLength = view.getInt();
+        byte[] uncompressed = new byte[uncompressedLength];
+
+        Inflater inflater = new Inflater();
+        try {
+            byte[] compressed = new byte[view.remaining()];
+            view.get(compressed);
+            inflater.setInput(compressed);
+            inflater.inflate(uncompressed);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("Corrupt archive block", e);
+        } finally {
+            inflater.end();
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(uncompressed))) {
+            int count = in.readInt();
+            List<Message> msgs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                msgs.add(MessageCodec.read(in));
+            }
+            return msgs;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static ByteBuffer readAt(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Archive segment ends early");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static class Segment {
+        final Path file;
+        final long size;
+        // first message ID of a block -> the block
+        final NavigableMap<Integer, BlockRef> blocks = new TreeMap<>();
+        // account ID -> IDs of its messages in this segment, until the segment is registered
+        final Map<Integer, List<Integer>> idsByPostedBy = new HashMap<>();
+        int minId;
+        int maxId = Integer.MIN_VALUE;
+
+        Segment(Path file, long size) {
+            this.file = file;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Reads the messages of several segments in ID order, each only once, leaving out deleted ones.
+     * Holds one decompressed block of each segment at a time.
+     */
+    private static class MergingIterator implements Iterator<Message> {
+        private final PriorityQueue<SegmentCursor> cursors =
+                new PriorityQueue<>((a, b) -> a.current().getMessageId().compareTo(b.current().getMessageId()));
+        private final Set<Integer> deleted;
+        private Message next;
+        private Integer lastId;
+
+        MergingIterator(List<Segment> merging, Set<Integer> deleted) {
+            this.deleted = deleted;
+            for (Segment segment : merging) {
+                SegmentCursor cursor = new SegmentCursor(segment);
+                if (cursor.current() != null) {
+                    cursors.add(cursor);
+                }
+            }
+            this.advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (next == null && !cursors.isEmpty()) {
+                SegmentCursor cursor = cursors.poll();
+                Message msg = cursor.current();
+                if (cursor.advance()) {
+                    cursors.add(cursor);
+                }
+                if (!msg.getMessageId().equals(lastId) && !deleted.contains(msg.getMessageId())) {
+                    next = msg;
+                }
+                lastId = msg.getMessageId();
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public Message next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Message msg = next;
+            this.advance();
+            return msg;
+        }
+    }
+
+    /**
+     * Walks through a segment's messages in ID order, a block at a time.
+     */
+    private static class SegmentCursor {
+        private final Iterator<BlockRef> blocks;
+        private List<Message> block = Collections.emptyList();
+        private int index;
+
+        SegmentCursor(Segment segment) {
+            this.blocks = segment.blocks.values().iterator();
+            this.advance();
+        }
+
+        Message current() {
+            return index < block.size() ? block.get(index) : null;
+        }
+
+        /**
+         * @return false once the segment is used up
+         */
+        boolean advance() {
+            index++;
+            while (index >= block.size()) {
+                if (!blocks.hasNext()) {
+                    return false;
+                }
+                block = readBlock(blocks.next());
+                index = 0;
+            }
+            return true;
+        }
+    }
+
+    private static class BlockRef {
+        // the mapped window of the segment the block is in, and its offset within the window
+        final ByteBuffer segment;
+        final int offset;
+        final int length;
+
+        BlockRef(ByteBuffer segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.service;
+
+import com.example.entity.Message;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Compact binary encoding of a message, shared by the on-disk formats (archive segments,
+ * event log and snapshots). Null fields are kept as null.
+ */
+final class MessageCodec {
+
+    private MessageCodec() {
+    }
+
+    static void write(DataOutput out, Message msg) throws IOException {
+        out.writeInt(msg.getMessageId());
+        out.writeBoolean(msg.getPostedBy() != null);
+        out.writeInt(msg.getPostedBy() == null ? 0 : msg.getPostedBy());
+        out.writeBoolean(msg.getTimePostedEpoch() != null);
+        out.writeLong(msg.getTimePostedEpoch() == null ? 0L : msg.getTimePostedEpoch());
+        out.writeBoolean(msg.getMessageText() != null);
+        out.writeUTF(msg.getMessageText() == null ? "" : msg.getMessageText());
+    }
+
+    static Message read(DataInput in) throws IOException {
+        Integer messageId = in.readInt();
+        boolean hasPostedBy = in.readBoolean();
+        int postedBy = in.readInt();
+        boolean hasTime = in.readBoolean();
+        long time = in.readLong();
+        boolean hasText = in.readBoolean();
+        String text = in.readUTF();
+        return new Message(messageId, hasPostedBy ? postedBy : null, hasText ? text : null, hasTime ? time : null);
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.service;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Message counts, per account and overall, so they can be read without counting rows, and running
+ * counts of changes. The per-account and total counts are those of the AccountMessageIndex, which
+ * already holds every account's messages; the message service bumps the change counts on every change.
+ * Since a change can be missed (e.g. rows changed outside the app), the counts are periodically
+ * reconciled against the real counts.
+ */
+@Component
+public class MessageCounters {
+
+    private final AccountMessageIndex accountIndex;
+    private final LongAdder created = new LongAdder();
+    private final LongAdder updated = new LongAdder();
+    private final LongAdder deleted = new LongAdder();
+
+    private volatile long lastReconciledAt;
+    private volatile long lastDrift;
+
+    public MessageCounters(AccountMessageIndex accountIndex) {
+        this.accountIndex = accountIndex;
+    }
+
+    /**
+     * Counts a new message.
+     */
+    public void messageCreated() {
+        created.increment();
+    }
+
+    /**
+     * Counts an edit of a message.
+     */
+    public void messageUpdated() {
+        updated.increment();
+    }
+
+    /**
+     * Counts a deleted message.
+     */
+    public void messageDeleted() {
+        deleted.increment();
+    }
+
+    /**
+     * @param postedBy account ID
+     * @return number of messages posted by the account
+     */
+    public long count(Integer postedBy) {
+        return accountIndex.count(postedBy);
+    }
+
+    /**
+     * @return number of messages across all accounts
+     */
+    public long total() {
+        return accountIndex.totalCount();
+    }
+
+    /**
+     * Compares the counts with the real counts. If a message changed while the real counts were taken
+     * they can't be compared, and the check is left for next time rather than mistaking the change for
+     * drift. Correcting drift is up to the caller (by rebuilding the index).
+     * @param countActual counts the real counts: account ID -> number of messages it has
+     * @return how many messages the counts are off by, over all accounts. -1 if messages changed meanwhile.
+     */
+    public long reconcile(Supplier<Map<Integer, Long>> countActual) {
+        long version = accountIndex.version();
+        Map<Integer, Long> actualCounts = countActual.get();
+        long drift = 0;
+        long countedForActual = 0;
+        for (Map.Entry<Integer, Long> e : actualCounts.entrySet()) {
+            long count = accountIndex.count(e.getKey());
+            countedForActual += count;
+            drift += Math.abs(e.getValue() - count);
+        }
+        // messages counted for accounts that have none
+        drift += Math.abs(accountIndex.totalCount() - countedForActual);
+        if (accountIndex.version() != version) {
+            return -1;
+        }
+
+        lastDrift = drift;
+        lastReconciledAt = System.currentTimeMillis();
+        return drift;
+    }
+
+    /**
+     * @return the counters, for reporting
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("totalMessages", total());
+        stats.put("created", created.sum());
+        stats.put("updated", updated.sum());
+        stats.put("deleted", deleted.sum());
+        stats.put("lastReconciledEpochMillis", lastReconciledAt);
+        stats.put("lastReconcileDrift", lastDrift);
+        return stats;
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.service;
+
+import com.example.entity.Message;
+
+/**
+ * Describes a change made to a message. Events are published by the message service
+ * and pushed to live stream subscribers.
+ */
+public class MessageEvent {
+
+    public enum Type { CREATED, UPDATED, DELETED }
+
+    private final Type type;
+    private final Message message;
+
+    public MessageEvent(Type type, Message message) {
+        this.type = type;
+        this.message = message;
+    }
+
+    /**
+     * @return what happened to the message
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the message after the change (or as it was right before a delete)
+     */
+    public Message getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "MessageEvent{" +
+                "type=" + type +
+                ", message=" + message +
+                '}';
+    }
+}
@@ -0,0 +1,202 @@
+package com.example.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Fans message events out to live stream (Server-Sent Events) subscribers.
+ * Publishing never blocks: each subscriber has its own bounded buffer, drained by a fixed pool of
+ * sender threads that take turns over the subscribers with events waiting, at most a buffer's worth
+ * per turn. A subscriber whose buffer is full is too slow to keep up and gets disconnected, as is one
+ * that can't even be queued for a turn because the pool is that far behind, so the number of threads
+ * and the memory held for subscribers stay bounded however many connect.
+ *
+ * A send to a client that stopped reading blocks until the server's socket write times out, holding
+ * up one sender thread. A watchdog disconnects any subscriber whose send has taken longer than the
+ * send timeout, so it stops being given events and turns.
+ */
+@Component
+public class MessageEventHub {
+
+    private final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService senders;
+    private final ScheduledExecutorService watchdog;
+    private final int bufferSize;
+    private final long sendTimeoutNanos;
+
+    public MessageEventHub(@Value("${app.stream.buffer-size:256}") int bufferSize,
+                           @Value("${app.stream.sender-threads:4}") int senderThreads,
+                           @Value("${app.stream.sender-queue-size:1024}") int senderQueueSize,
+                           @Value("${app.stream.send-timeout-ms:5000}") long sendTimeoutMillis) {
+        this.bufferSize = bufferSize;
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(sendTimeoutMillis);
+        // a subscriber is queued at most once at a time, so the queue bounds how many can be waiting for a turn
+        this.senders = new ThreadPoolExecutor(senderThreads, senderThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(senderQueueSize), daemon("message-stream-sender"));
+        this.watchdog = Executors.newSingleThreadScheduledExecutor(daemon("message-stream-watchdog"));
+        long checkEvery = Math.max(sendTimeoutMillis / 2, 1);
+        this.watchdog.scheduleWithFixedDelay(this::dropStalled, checkEvery, checkEvery, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Registers a new subscriber.
+     * @param postedBy only receive events for messages posted by this account. null for all messages.
+     * @return the emitter to hand back to the client
+     */
+    public SseEmitter subscribe(Integer postedBy) {
+        SseEmitter emitter = new SseEmitter(0L);
+        Subscriber sub = new Subscriber(emitter, postedBy, bufferSize);
+        emitter.onCompletion(() -> subscribers.remove(sub));
+        emitter.onTimeout(() -> subscribers.remove(sub));
+        emitter.onError(e -> subscribers.remove(sub));
+        try {
+            // a comment is sent right away so the response is committed before the first real event
+            emitter.send(SseEmitter.event().comment("connected"));
+        } catch (IOException e) {
+            emitter.completeWithError(e);
+            return emitter;
+        }
+        subscribers.add(sub);
+        return emitter;
+    }
+
+    /**
+     * Hands an event to every interested subscriber without waiting for it to be sent.
+     * @param event
+     */
+    public void publish(MessageEvent event) {
+        for (Subscriber sub : subscribers) {
+            if (!sub.wants(event)) {
+                continue;
+            }
+            if (!sub.buffer.offer(event)) {
+                // buffer full, the client can't keep up
+                drop(sub);
+                continue;
+            }
+            scheduleDrain(sub);
+        }
+    }
+
+    /**
+     * @return number of connected subscribers
+     */
+    public int subscriberCount() {
+        return subscribers.size();
+    }
+
+    private void scheduleDrain(Subscriber sub) {
+        if (!sub.draining.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            senders.execute(() -> drain(sub));
+        } catch (RejectedExecutionException e) {
+            sub.draining.set(false);
+            if (!senders.isShutdown()) {
+                // too many subscribers are waiting for a turn already
+                drop(sub);
+            }
+        }
+    }
+
+    private void drain(Subscriber sub) {
+        try {
+            MessageEvent event;
+            // one turn sends at most a buffer's worth, then the subscriber goes to the back of the queue
+            for (int sent = 0; sent < bufferSize && (event = sub.buffer.poll()) != null; sent++) {
+                sub.sendingSince = System.nanoTime();
+                sub.emitter.send(SseEmitter.event()
+                        .name(event.getType().name().toLowerCase())
+                        .data(event.getMessage()));
+                sub.sendingSince = 0;
+            }
+        } catch (IOException | IllegalStateException e) {
+            drop(sub);
+            return;
+        } finally {
+            sub.sendingSince = 0;
+            sub.draining.set(false);
+        }
+        // an event may have been buffered after the last poll but before draining was cleared
+        if (!sub.buffer.isEmpty()) {
+            scheduleDrain(sub);
+        }
+    }
+
+    private void drop(Subscriber sub) {
+        if (subscribers.remove(sub)) {
+            sub.buffer.clear();
+            sub.emitter.complete();
+        }
+    }
+
+    /**
+     * Disconnects subscribers whose current send has been going on for longer than the send timeout.
+     */
+    private void dropStalled() {
+        long now = System.nanoTime();
+        for (Subscriber sub : subscribers) {
+            long since = sub.sendingSince;
+            if (since != 0 && now - since > sendTimeoutNanos && subscribers.remove(sub)) {
+                sub.buffer.clear();
+                // completing waits for the stuck send to give up, so it mustn't hold up the watchdog
+                try {
+                    senders.execute(() -> sub.emitter.completeWithError(new IOException("Send timed out")));
+                } catch (RejectedExecutionException e) {
+                    // shutting down, or the senders are too far behind; the send still ends with the socket timeout
+                }
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        senders.shutdownNow();
+        for (Subscriber sub : subscribers) {
+            drop(sub);
+        }
+    }
+
+    private static class Subscriber {
+        final SseEmitter emitter;
+        final Integer postedBy;
+        final Queue<MessageEvent> buffer;
+        final AtomicBoolean draining = new AtomicBoolean();
+        // System.nanoTime() when the send in progress started. 0 if none is.
+        volatile long sendingSince;
+
+        Subscriber(SseEmitter emitter, Integer postedBy, int bufferSize) {
+            this.emitter = emitter;
+            this.postedBy = postedBy;
+            this.buffer = new ArrayBlockingQueue<>(bufferSize);
+        }
+
+        boolean wants(MessageEvent event) {
+            return postedBy == null || postedBy.equals(event.getMessage().getPostedBy());
+        }
+    }
+}
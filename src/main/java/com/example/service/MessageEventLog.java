@@ -0,0 +1,443 @@
+package com.example.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.Message;
+import com.example.repository.MessageRepository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+
+/**
+ * A local, append-only log of every message change made through the message service.
+ * The log can rebuild the full set of messages or be replayed to feed downstream consumers.
+ *
+ * Events are appended to the current log file through a FileChannel and fsynced in batches
+ * by a background flush rather than once per event. Every event gets an increasing sequence number.
+ *
+ * Periodically a snapshot is taken: the log is rolled to a new file, the previous snapshot plus the
+ * log files before the roll are folded into a new snapshot, and those log files are deleted. A cold
+ * node restores its state by loading the latest snapshot and replaying only the log files after it.
+ *
+ * The database is the source of truth. On startup the state restored from the log is checked against
+ * the messages in the store; if they differ (e.g. the database was re-created), the log starts over
+ * from a snapshot of the store, so that history never mixes messages of two different databases.
+ * Sequence numbers keep increasing across such a restart, so replay positions stay valid.
+ *
+ * The log is opened as the application context starts, before the web server and the scheduled
+ * jobs: a change accepted before it was open would not be logged.
+ *
+ * Files in the log directory:
+ *   events-{first sequence number}.log   records of [length][crc32][sequence number][event type][message]
+ *   snapshot-{sequence number}.snap      [magic][sequence number][message count][message]...
+ */
+@Component
+public class MessageEventLog implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageEventLog.class);
+    private static final int SNAPSHOT_MAGIC = 0x4D534E50; // "MSNP"
+
+    private final boolean enabled;
+    private final Path dir;
+    private final MessageRepository msgRep;
+    private final MessageArchive archive;
+    private volatile boolean running;
+
+    private final Object appendLock = new Object();
+    private FileChannel current;
+    private long lastSeq;
+    private boolean dirty;
+
+    public MessageEventLog(MessageRepository msgRep, MessageArchive archive,
+                           @Value("${app.event-log.enabled:false}") boolean enabled,
+                           @Value("${app.event-log.dir:event-log}") String dir) {
+        this.msgRep = msgRep;
+        this.archive = archive;
+        this.enabled = enabled;
+        this.dir = Paths.get(dir);
+    }
+
+    /**
+     * Opens the log against the messages in the database and archive.
+     */
+    @Override
+    public void start() {
+        try {
+            this.open(() -> {
+                List<Message> msgs = new ArrayList<>(archive.findAll());
+                msgs.addAll(msgRep.findAll());
+                return msgs;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the message event log", e);
+        }
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        try {
+            this.close();
+        } catch (IOException e) {
+            log.warn("Could not close the message event log", e);
+        }
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Starts before the web server, which starts in the last phase, and stops after it.
+     */
+    @Override
+    public int getPhase() {
+        return 0;
+    }
+
+    /**
+     * @return true if event logging is turned on
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Opens the log. If there is no history yet, the messages that already exist are written
+     * as the first snapshot so that the log covers them as well. If there is, it is restored and
+     * checked against those messages, and replaced by a new snapshot of them if it doesn't match.
+     * @param existingMsgs the messages in the store right now
+     */
+    public void open(Supplier<List<Message>> existingMsgs) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        Files.createDirectories(dir);
+        TreeMap<Long, Path> snapshots = listFiles("snapshot-", ".snap");
+        TreeMap<Long, Path> logs = listFiles("events-", ".log");
+        if (snapshots.isEmpty() && logs.isEmpty()) {
+            writeSnapshot(0, existingMsgs.get());
+        }
+
+        // carry on after the last event on disk, in a new file in case the last one ended in a torn write
+        long seq = snapshots.isEmpty() ? 0 : snapshots.lastKey();
+        for (Path logFile : logs.values()) {
+            seq = Math.max(seq, readLog(logFile, (s, e) -> { }));
+        }
+
+        if (!snapshots.isEmpty() || !logs.isEmpty()) {
+            List<Message> msgs = existingMsgs.get();
+            int differing = countDifferences(this.restore(seq), msgs);
+            if (differing > 0) {
+                log.warn("Message event log differs from the store in {} messages, starting it over from a snapshot at {}",
+                        differing, seq);
+                writeSnapshot(seq, msgs);
+                dropFilesBefore(seq);
+            }
+        }
+        synchronized (appendLock) {
+            lastSeq = seq;
+            current = openLogFile(seq + 1);
+        }
+    }
+
+    /**
+     * Appends an event. It is written right away but only made durable by the next batched flush.
+     * @param event
+     */
+    public void append(MessageEvent event) {
+        if (!enabled) {
+            return;
+        }
+        synchronized (appendLock) {
+            if (current == null) {
+                return;
+            }
+            try {
+                byte[] payload = encode(lastSeq + 1, event);
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+                record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+                while (record.hasRemaining()) {
+                    current.write(record);
+                }
+                lastSeq++;
+                dirty = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException("Could not append to the message event log", e);
+            }
+        }
+    }
+
+    /**
+     * Forces appended events to disk. Runs in the background so many events share one fsync.
+     */
+    @Scheduled(fixedDelayString = "${app.event-log.fsync-interval-ms:50}")
+    public void flush() throws IOException {
+        synchronized (appendLock) {
+            if (current != null && dirty) {
+                current.force(false);
+                dirty = false;
+            }
+        }
+    }
+
+    /**
+     * Takes a snapshot and drops the log files it covers.
+     */
+    @Scheduled(fixedDelayString = "${app.event-log.snapshot-interval-ms:600000}",
+               initialDelayString = "${app.event-log.snapshot-interval-ms:600000}")
+    public void snapshot() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        long snapshotSeq;
+        synchronized (appendLock) {
+            if (current == null) {
+                return;
+            }
+            // roll so that everything up to snapshotSeq is in files that are no longer written to
+            current.force(false);
+            current.close();
+            snapshotSeq = lastSeq;
+            current = openLogFile(snapshotSeq + 1);
+            dirty = false;
+        }
+
+        Map<Integer, Message> state = this.restore(snapshotSeq);
+        writeSnapshot(snapshotSeq, new ArrayList<>(state.values()));
+        dropFilesBefore(snapshotSeq);
+    }
+
+    /**
+     * Rebuilds the full set of messages from the latest snapshot plus the events logged after it.
+     * @return message ID -> message
+     */
+    public Map<Integer, Message> restore() throws IOException {
+        return this.restore(Long.MAX_VALUE);
+    }
+
+    /**
+     * Replays logged events in order to a consumer, e.g. to feed a downstream system.
+     * Only events still in the log (after the latest snapshot) can be replayed.
+     * @param afterSeq only events with a greater sequence number are replayed
+     * @param consumer receives each event's sequence number and the event
+     * @return the sequence number of the last event replayed
+     */
+    public long replay(long afterSeq, BiConsumer<Long, MessageEvent> consumer) throws IOException {
+        long last = afterSeq;
+        for (Path logFile : listFiles("events-", ".log").values()) {
+            last = Math.max(last, readLog(logFile, (seq, event) -> {
+                if (seq > afterSeq) {
+                    consumer.accept(seq, event);
+                }
+            }));
+        }
+        return last;
+    }
+
+    public void close() throws IOException {
+        synchronized (appendLock) {
+            if (current != null) {
+                current.force(false);
+                current.close();
+                current = null;
+            }
+        }
+    }
+
+    /**
+     * Deletes the log files and snapshots made obsolete by the snapshot at the given sequence number.
+     */
+    private void dropFilesBefore(long snapshotSeq) throws IOException {
+        for (Map.Entry<Long, Path> e : listFiles("events-", ".log").entrySet()) {
+            if (e.getKey() <= snapshotSeq) {
+                Files.deleteIfExists(e.getValue());
+            }
+        }
+        for (Map.Entry<Long, Path> e : listFiles("snapshot-", ".snap").entrySet()) {
+            if (e.getKey() < snapshotSeq) {
+                Files.deleteIfExists(e.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return number of messages that are missing from one side or not the same on both
+     */
+    private static int countDifferences(Map<Integer, Message> logged, List<Message> msgs) {
+        int differing = 0;
+        Set<Integer> ids = new HashSet<>();
+        for (Message msg : msgs) {
+            ids.add(msg.getMessageId());
+            if (!msg.equals(logged.get(msg.getMessageId()))) {
+                differing++;
+            }
+        }
+        for (Integer id : logged.keySet()) {
+            if (!ids.contains(id)) {
+                differing++;
+            }
+        }
+        return differing;
+    }
+
+    private Map<Integer, Message> restore(long upToSeq) throws IOException {
+        long start = System.nanoTime();
+        Map<Integer, Message> state = new LinkedHashMap<>();
+        long snapshotSeq = 0;
+        TreeMap<Long, Path> snapshots = listFiles("snapshot-", ".snap");
+        if (!snapshots.isEmpty()) {
+            snapshotSeq = snapshots.lastKey();
+            for (Message msg : readSnapshot(snapshots.lastEntry().getValue())) {
+                state.put(msg.getMessageId(), msg);
+            }
+        }
+
+        long[] replayed = new long[1];
+        this.replay(snapshotSeq, (seq, event) -> {
+            if (seq > upToSeq) {
+                return;
+            }
+            Message msg = event.getMessage();
+            if (event.getType() == MessageEvent.Type.DELETED) {
+                state.remove(msg.getMessageId());
+            } else {
+                state.put(msg.getMessageId(), msg);
+            }
+            replayed[0]++;
+        });
+
+        long elapsedNanos = Math.max(System.nanoTime() - start, 1);
+        log.info("Restored {} messages from snapshot {} and {} logged events in {} ms ({} events/sec)",
+                state.size(), snapshotSeq, replayed[0], elapsedNanos / 1_000_000,
+                replayed[0] * 1_000_000_000L / elapsedNanos);
+        return state;
+    }
+
+    /**
+     * Reads a log file up to its end or the first torn/corrupt record.
+     * @return the last sequence number read
+     */
+    private long readLog(Path logFile, BiConsumer<Long, MessageEvent> consumer) throws IOException {
+        long last = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(logFile)))) {
+            while (true) {
+                byte[] payload;
+                int expectedCrc;
+                try {
+                    payload = new byte[in.readInt()];
+                    expectedCrc = in.readInt();
+                    in.readFully(payload);
+                } catch (EOFException e) {
+                    break;
+                }
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                if ((int) crc.getValue() != expectedCrc) {
+                    log.warn("Stopping at corrupt record in {}", logFile);
+                    break;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                long seq = record.readLong();
+                MessageEvent.Type type = MessageEvent.Type.values()[record.readByte()];
+                consumer.accept(seq, new MessageEvent(type, MessageCodec.read(record)));
+                last = seq;
+            }
+        }
+        return last;
+    }
+
+    private static byte[] encode(long seq, MessageEvent event) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(seq);
+        out.writeByte(event.getType().ordinal());
+        MessageCodec.write(out, event.getMessage());
+        return bytes.toByteArray();
+    }
+
+    private void writeSnapshot(long seq, List<Message> msgs) throws IOException {
+        Path snapshot = dir.resolve("snapshot-" + seq + ".snap");
+        Path tmp = dir.resolve(snapshot.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(seq);
+            out.writeInt(msgs.size());
+            for (Message msg : msgs) {
+                MessageCodec.write(out, msg);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static List<Message> readSnapshot(Path snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Corrupt snapshot " + snapshot);
+            }
+            in.readLong();
+            int count = in.readInt();
+            List<Message> msgs = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                msgs.add(MessageCodec.read(in));
+            }
+            return msgs;
+        }
+    }
+
+    private FileChannel openLogFile(long firstSeq) throws IOException {
+        return FileChannel.open(dir.resolve("events-" + firstSeq + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * @return the files with the given prefix/suffix, keyed by the number in their name
+     */
+    private TreeMap<Long, Path> listFiles(String prefix, String suffix) throws IOException {
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, prefix + "*" + suffix)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                files.put(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())), file);
+            }
+        }
+        return files;
+    }
+}
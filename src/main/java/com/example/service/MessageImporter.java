@@ -0,0 +1,180 @@
+package com.example.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.Account;
+import com.example.entity.Message;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Imports a JSON array of messages of any size in constant memory.
+ *
+ * Instead of binding the whole request body, the array is read token by token from the input
+ * stream, and only one message at a time is bound to an object. Messages are collected into
+ * fixed-size chunks; every full chunk is checked (text by the InputValidator, posters with one
+ * account query) and saved in its own transaction before the next one is read. So at most one
+ * chunk is held in memory, and a chunk that has been saved stays saved even if the body turns out
+ * to be broken further on, or a later chunk can't be saved.
+ */
+@Component
+public class MessageImporter {
+
+    // how many rejected positions are reported back, so the report stays small too
+    private static final int MAX_REPORTED_REJECTS = 100;
+
+    private final ObjectMapper objectMapper;
+    private final MessageService msgService;
+    private final AccountService accService;
+    private final InputValidator validator;
+    private final int chunkSize;
+
+    public MessageImporter(ObjectMapper objectMapper, MessageService msgService, AccountService accService,
+                           InputValidator validator, @Value("${app.import.chunk-size:500}") int chunkSize) {
+        this.objectMapper = objectMapper;
+        this.msgService = msgService;
+        this.accService = accService;
+        this.validator = validator;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * The outcome of an import, as sent back to the client.
+     */
+    public static class Result {
+        private long imported;
+        private long rejected;
+        private final List<Long> rejectedPositions = new ArrayList<>();
+        private String error;
+
+        /**
+         * @return number of messages saved
+         */
+        public long getImported() {
+            return imported;
+        }
+
+        /**
+         * @return number of messages refused for invalid text or an unknown poster
+         */
+        public long getRejected() {
+            return rejected;
+        }
+
+        /**
+         * @return zero based positions in the array of the first refused messages
+         */
+        public List<Long> getRejectedPositions() {
+            return rejectedPositions;
+        }
+
+        /**
+         * @return why the body could not be read or saved to the end. null if it could.
+         */
+        public String getError() {
+            return error;
+        }
+
+        private void reject(long position) {
+            rejected++;
+            if (rejectedPositions.size() < MAX_REPORTED_REJECTS) {
+                rejectedPositions.add(position);
+            }
+        }
+    }
+
+    /**
+     * Reads a JSON array of messages from the stream and saves the valid ones, chunk by chunk.
+     * A message is refused, without stopping the import, if its text is invalid or its poster
+     * doesn't exist. Reading stops at the first thing that isn't part of a JSON array of message
+     * objects, or at a chunk the database refuses (e.g. a poster deleted in the meantime); the chunks
+     * before it have been saved by then, the refused chunk is not saved at all.
+     * @param in the request body
+     * @return the counts of imported and refused messages, and the error if reading stopped early
+     */
+    public Result importFrom(InputStream in) throws IOException {
+        Result result = new Result();
+        List<Message> chunk = new ArrayList<>(chunkSize);
+        List<Long> positions = new ArrayList<>(chunkSize);
+        long position = 0;
+
+        try (JsonParser parser = objectMapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                result.error = "Expected a JSON array of messages";
+                return result;
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    result.error = "Expected a message object at position " + position;
+                    break;
+                }
+                chunk.add(objectMapper.readValue(parser, Message.class));
+                positions.add(position++);
+                if (chunk.size() == chunkSize && !this.saveChunk(chunk, positions, result)) {
+                    return result;
+                }
+            }
+        } catch (JsonProcessingException e) {
+            // malformed JSON or a value of the wrong type; everything read before it is still saved
+            result.error = "Could not read message at position " + position + ": " + e.getOriginalMessage();
+        }
+        this.saveChunk(chunk, positions, result);
+        return result;
+    }
+
+    /**
+     * @return false if the database refused the chunk, with the reason in the result
+     */
+    private boolean saveChunk(List<Message> chunk, List<Long> positions, Result result) {
+        if (chunk.isEmpty()) {
+            return true;
+        }
+        Set<Integer> posterIds = new HashSet<>();
+        for (Message msg : chunk) {
+            if (msg.getPostedBy() != null && this.validator.isValidMessageText(msg.getMessageText())) {
+                posterIds.add(msg.getPostedBy());
+            }
+        }
+        Set<Integer> existingPosters = new HashSet<>();
+        if (!posterIds.isEmpty()) {
+            for (Account acc : this.accService.getAccountsByIds(new ArrayList<>(posterIds))) {
+                existingPosters.add(acc.getAccountId());
+            }
+        }
+
+        List<Message> valid = new ArrayList<>(chunk.size());
+        for (int i = 0; i < chunk.size(); i++) {
+            Message msg = chunk.get(i);
+            if (existingPosters.contains(msg.getPostedBy()) && this.validator.isValidMessageText(msg.getMessageText())) {
+                valid.add(msg);
+            } else {
+                result.reject(positions.get(i));
+            }
+        }
+        long first = positions.get(0);
+        long last = positions.get(positions.size() - 1);
+        chunk.clear();
+        positions.clear();
+        if (!valid.isEmpty()) {
+            try {
+                result.imported += this.msgService.importMessages(valid).size();
+            } catch (DataAccessException e) {
+                result.error = "Could not save messages at positions " + first + " to " + last + ": "
+                        + e.getMostSpecificCause().getMessage();
+                return false;
+            }
+        }
+        return true;
+    }
+}
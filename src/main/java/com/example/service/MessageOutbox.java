@@ -0,0 +1,128 @@
+package com.example.service;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.example.entity.OutboxEvent;
+import com.example.repository.OutboxEventRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Change data capture for messages through a transactional outbox.
+ *
+ * The message service records every change in the outbox table inside the same transaction as the
+ * change itself, so a change is captured if and only if it commits. A background relay drains the
+ * table in batches, oldest first, hands each batch to the configured sink and deletes it afterwards.
+ * If delivery fails the batch stays in the table and is retried, giving at-least-once delivery.
+ */
+@Component
+public class MessageOutbox {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageOutbox.class);
+
+    private final OutboxEventRepository outboxRep;
+    private final OutboxSink sink;
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile long lagMillis;
+
+    public MessageOutbox(OutboxEventRepository outboxRep, OutboxSink sink, ObjectMapper objectMapper,
+                         @Value("${app.outbox.enabled:false}") boolean enabled) {
+        this.outboxRep = outboxRep;
+        this.sink = sink;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Adds a change to the outbox. Must be called inside the transaction making the change.
+     * @param event
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void record(MessageEvent event) {
+        if (!enabled) {
+            return;
+        }
+        try {
+            String payload = objectMapper.writeValueAsString(event.getMessage());
+            outboxRep.save(new OutboxEvent(event.getType().name(), event.getMessage().getMessageId(),
+                    payload, System.currentTimeMillis()));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Could not serialize message for the outbox", e);
+        }
+    }
+
+    /**
+     * Delivers pending outbox events to the sink, one batch at a time, until the outbox is empty
+     * or delivery fails.
+     * @return number of events delivered
+     */
+    @Scheduled(fixedDelayString = "${app.outbox.relay-interval-ms:500}")
+    public int relay() {
+        if (!enabled) {
+            return 0;
+        }
+        int sent = 0;
+        List<OutboxEvent> batch;
+        while (!(batch = outboxRep.findTop100ByOrderByOutboxIdAsc()).isEmpty()) {
+            lagMillis = System.currentTimeMillis() - batch.get(0).getCreatedAt();
+            try {
+                sink.send(batch);
+            } catch (Exception e) {
+                log.warn("Outbox delivery failed, {} events will be retried", batch.size(), e);
+                return sent;
+            }
+            outboxRep.deleteAllInBatch(batch);
+            sent += batch.size();
+            delivered.addAndGet(batch.size());
+        }
+        lagMillis = 0;
+        return sent;
+    }
+
+    /**
+     * @return total number of events delivered to the sink
+     */
+    public long getDeliveredCount() {
+        return delivered.get();
+    }
+
+    /**
+     * @return number of events waiting to be delivered
+     */
+    public long getPendingCount() {
+        return outboxRep.count();
+    }
+
+    /**
+     * @return age in milliseconds of the oldest event seen undelivered by the last relay run.
+     *         0 if the relay last left the outbox empty.
+     */
+    public long getLagMillis() {
+        return lagMillis;
+    }
+
+    /**
+     * @return whether the outbox is on, and its delivered and pending counts and lag, for reporting
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("delivered", getDeliveredCount());
+        stats.put("pending", enabled ? getPendingCount() : 0L);
+        stats.put("lagMillis", getLagMillis());
+        return stats;
+    }
+}
@@ -0,0 +1,410 @@
+package com.example.service;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.Message;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory inverted index over message text. Each term maps to a posting list of
+ * message IDs (kept sorted in a primitive int array) along with how many times the term
+ * appears in each message. The index is kept in sync by the message service whenever a
+ * message is created, updated or deleted, so searching never has to scan the message table.
+ * While the index is being rebuilt those changes are also recorded, and replayed onto the rebuilt
+ * index when it is swapped in, so a change made while the messages were being loaded isn't lost.
+ *
+ * A search walks the query terms' posting lists side by side in ID order, scoring one message at a
+ * time, and keeps only the best results up to the requested page in a bounded heap of primitives.
+ * So it neither collects a score for every match nor sorts them all.
+ */
+@Component
+public class MessageSearchIndex {
+
+    // term -> posting list of messages that contain the term
+    private Map<String, PostingList> postings = new HashMap<>();
+
+    // message ID -> the distinct terms indexed for it (needed to un-index on update/delete)
+    private Map<Integer, String[]> indexedTerms = new HashMap<>();
+
+    // changes made since a rebuild began. null when there is no rebuild.
+    private List<Change> pending;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    // held by the thread rebuilding the index, from beginRebuild until rebuild or cancelRebuild
+    private final ReentrantLock rebuilding = new ReentrantLock();
+
+    /**
+     * Adds a message to the index, replacing whatever was indexed for its ID before.
+     * @param msg
+     */
+    public void index(Message msg) {
+        if (msg == null || msg.getMessageId() == null) {
+            return;
+        }
+        Map<String, Integer> termFreqs = termFrequencies(msg.getMessageText());
+
+        lock.writeLock().lock();
+        try {
+            this.apply(new Change(msg.getMessageId(), termFreqs));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a message from the index.
+     * @param msgId
+     */
+    public void remove(Integer msgId) {
+        if (msgId == null) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            this.apply(new Change(msgId, null));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void apply(Change change) {
+        if (pending != null) {
+            pending.add(change);
+        }
+        change.applyTo(postings, indexedTerms);
+    }
+
+    /**
+     * Starts recording changes for a rebuild. Call it before loading the messages to rebuild from,
+     * then rebuild (or cancelRebuild if the load failed). Only one rebuild runs at a time.
+     */
+    public void beginRebuild() {
+        rebuilding.lock();
+        lock.writeLock().lock();
+        try {
+            pending = new ArrayList<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Stops recording changes without rebuilding.
+     */
+    public void cancelRebuild() {
+        lock.writeLock().lock();
+        try {
+            pending = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        rebuilding.unlock();
+    }
+
+    /**
+     * Replaces everything in the index with the given messages. The new index is built aside and
+     * swapped in at once, so searches never see it half built. The changes made since beginRebuild,
+     * which the messages may or may not include, are replayed onto it first.
+     * @param msgs
+     */
+    public void rebuild(Collection<Message> msgs) {
+        try {
+            Map<String, PostingList> rebuiltPostings = new HashMap<>();
+            Map<Integer, String[]> rebuiltTerms = new HashMap<>();
+            for (Message msg : msgs) {
+                if (msg != null && msg.getMessageId() != null) {
+                    indexInto(rebuiltPostings, rebuiltTerms, msg.getMessageId(), termFrequencies(msg.getMessageText()));
+                }
+            }
+            lock.writeLock().lock();
+            try {
+                if (pending != null) {
+                    for (Change change : pending) {
+                        change.applyTo(rebuiltPostings, rebuiltTerms);
+                    }
+                    pending = null;
+                }
+                postings = rebuiltPostings;
+                indexedTerms = rebuiltTerms;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            if (rebuilding.isHeldByCurrentThread()) {
+                rebuilding.unlock();
+            }
+        }
+    }
+
+    /**
+     * Searches the index and returns a page of matching message IDs, best match first.
+     * Messages are scored with tf-idf summed over the query terms; ties go to the newest message ID.
+     * @param query free text
+     * @param page zero based page number
+     * @param size page size
+     * @return the matching message IDs for the page. Empty if nothing matched.
+     */
+    public List<Integer> search(String query, int page, int size) {
+        String[] terms = termFrequencies(query).keySet().toArray(new String[0]);
+        if (terms.length == 0 || page < 0 || size <= 0) {
+            return new ArrayList<>();
+        }
+
+        TopHits top;
+        long from = (long) page * size;
+        lock.readLock().lock();
+        try {
+            PostingList[] lists = new PostingList[terms.length];
+            double[] idfs = new double[terms.length];
+            int numOfLists = 0;
+            long maxHits = 0;
+            int numOfDocs = Math.max(indexedTerms.size(), 1);
+            for (String term : terms) {
+                PostingList list = postings.get(term);
+                if (list != null) {
+                    lists[numOfLists] = list;
+                    idfs[numOfLists] = Math.log(1.0 + (double) numOfDocs / list.size);
+                    numOfLists++;
+                    maxHits += list.size;
+                }
+            }
+            if (from >= maxHits) {
+                return new ArrayList<>();
+            }
+            top = new TopHits((int) Math.min(from + size, maxHits));
+
+            // walk the posting lists in ID order, summing each message's score across them
+            int[] positions = new int[numOfLists];
+            while (true) {
+                int id = Integer.MAX_VALUE;
+                boolean any = false;
+                for (int t = 0; t < numOfLists; t++) {
+                    if (positions[t] < lists[t].size && lists[t].ids[positions[t]] <= id) {
+                        id = lists[t].ids[positions[t]];
+                        any = true;
+                    }
+                }
+                if (!any) {
+                    break;
+                }
+                double score = 0;
+                for (int t = 0; t < numOfLists; t++) {
+                    if (positions[t] < lists[t].size && lists[t].ids[positions[t]] == id) {
+                        score += lists[t].freqs[positions[t]] * idfs[t];
+                        positions[t]++;
+                    }
+                }
+                top.offer(id, score);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        int[] ranked = top.sortedIds();
+        List<Integer> result = new ArrayList<>();
+        for (long i = from; i < ranked.length && i < from + size; i++) {
+            result.add(ranked[(int) i]);
+        }
+        return result;
+    }
+
+    private static void indexInto(Map<String, PostingList> postings, Map<Integer, String[]> indexedTerms,
+                                  Integer msgId, Map<String, Integer> termFreqs) {
+        removeFrom(postings, indexedTerms, msgId);
+        for (Map.Entry<String, Integer> e : termFreqs.entrySet()) {
+            postings.computeIfAbsent(e.getKey(), k -> new PostingList()).put(msgId, e.getValue());
+        }
+        indexedTerms.put(msgId, termFreqs.keySet().toArray(new String[0]));
+    }
+
+    private static void removeFrom(Map<String, PostingList> postings, Map<Integer, String[]> indexedTerms, Integer msgId) {
+        String[] terms = indexedTerms.remove(msgId);
+        if (terms == null) {
+            return;
+        }
+        for (String term : terms) {
+            PostingList list = postings.get(term);
+            if (list != null && list.remove(msgId) && list.size == 0) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    /**
+     * Splits text into lower case alphanumeric terms and counts them.
+     */
+    static Map<String, Integer> termFrequencies(String text) {
+        Map<String, Integer> freqs = new HashMap<>();
+        if (text == null) {
+            return freqs;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean isTermChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (isTermChar && start < 0) {
+                start = i;
+            } else if (!isTermChar && start >= 0) {
+                freqs.merge(text.substring(start, i).toLowerCase(), 1, Integer::sum);
+                start = -1;
+            }
+        }
+        return freqs;
+    }
+
+    /**
+     * A message indexed with its term frequencies, or removed from the index.
+     */
+    private static class Change {
+        final Integer msgId;
+        // null for a removal
+        final Map<String, Integer> termFreqs;
+
+        Change(Integer msgId, Map<String, Integer> termFreqs) {
+            this.msgId = msgId;
+            this.termFreqs = termFreqs;
+        }
+
+        void applyTo(Map<String, PostingList> postings, Map<Integer, String[]> indexedTerms) {
+            if (termFreqs == null) {
+                removeFrom(postings, indexedTerms, msgId);
+            } else {
+                indexInto(postings, indexedTerms, msgId, termFreqs);
+            }
+        }
+    }
+
+    /**
+     * The best scored message IDs seen so far, at most a fixed number of them, in a binary min-heap of
+     * parallel primitive arrays whose root is the worst of them. A better hit replaces the root.
+     * Ranking is by score, ties going to the newest (highest) message ID.
+     */
+    private static class TopHits {
+        final int[] ids;
+        final double[] scores;
+        int size;
+
+        TopHits(int capacity) {
+            ids = new int[capacity];
+            scores = new double[capacity];
+        }
+
+        void offer(int id, double score) {
+            if (size < ids.length) {
+                ids[size] = id;
+                scores[size] = score;
+                siftUp(size++);
+            } else if (size > 0 && worse(ids[0], scores[0], id, score)) {
+                ids[0] = id;
+                scores[0] = score;
+                siftDown(0, size);
+            }
+        }
+
+        /**
+         * Empties the heap.
+         * @return the IDs, best first
+         */
+        int[] sortedIds() {
+            int count = size;
+            // repeatedly move the worst to the end of the shrinking heap
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            size = 0;
+            return Arrays.copyOf(ids, count);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (!worse(ids[i], scores[i], ids[parent], scores[parent])) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i, int end) {
+            while (true) {
+                int worst = i;
+                int left = 2 * i + 1;
+                int right = left + 1;
+                if (left < end && worse(ids[left], scores[left], ids[worst], scores[worst])) {
+                    worst = left;
+                }
+                if (right < end && worse(ids[right], scores[right], ids[worst], scores[worst])) {
+                    worst = right;
+                }
+                if (worst == i) {
+                    return;
+                }
+                swap(i, worst);
+                i = worst;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double score = scores[a];
+            scores[a] = scores[b];
+            scores[b] = score;
+        }
+
+        /**
+         * @return true if the first hit ranks below the second
+         */
+        private static boolean worse(int id, double score, int otherId, double otherScore) {
+            int byScore = Double.compare(score, otherScore);
+            return byScore != 0 ? byScore < 0 : id < otherId;
+        }
+    }
+
+    /**
+     * A posting list stored as parallel primitive arrays sorted by message ID.
+     */
+    private static class PostingList {
+        int[] ids = new int[4];
+        int[] freqs = new int[4];
+        int size;
+
+        void put(int id, int freq) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos >= 0) {
+                freqs[pos] = freq;
+                return;
+            }
+            pos = -pos - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            System.arraycopy(ids, pos, ids, pos + 1, size - pos);
+            System.arraycopy(freqs, pos, freqs, pos + 1, size - pos);
+            ids[pos] = id;
+            freqs[pos] = freq;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int pos = Arrays.binarySearch(ids, 0, size, id);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+            System.arraycopy(freqs, pos + 1, freqs, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+    }
+}
@@ -1,21 +1,155 @@
 package com.example.service;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 import com.example.entity.Message;
+import com.example.exception.MessageVersionConflictException;
 import com.example.repository.MessageRepository;
 
+import org.hibernate.Session;
+import org.hibernate.cache.spi.TimestampsCache;
+import org.hibernate.engine.spi.SessionImplementor;
+
+import javax.persistence.EntityManager;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.sql.PreparedStatement;
 import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class MessageService {
 
+    /**
+     * The version read from the tag of an archived message. No message in the table ever has it,
+     * so a write expecting it only goes through on the archived message.
+     */
+    public static final long ARCHIVED_VERSION = -1L;
+    private static final String ARCHIVED_TAG_VERSION = "a";
+
     MessageRepository msgRep;
+    MessageSearchIndex searchIndex;
+    MessageEventHub eventHub;
+    MessageArchive archive;
+    MessageEventLog eventLog;
+    MessageOutbox outbox;
+    OffHeapMessageCache offHeapCache;
+    AccountMessageIndex accountIndex;
+    MessageCounters counters;
+    InputValidator validator;
+    EntityManager entityManager;
+    TransactionTemplate transactionTemplate;
+
+    // versions of the message collections, bumped on every create/update/delete so that
+    // entity tags can be produced without querying the messages themselves
+    private final long bootId = System.currentTimeMillis();
+    private final AtomicLong allMsgsVersion = new AtomicLong();
+    private final Map<Integer, AtomicLong> userMsgsVersions = new ConcurrentHashMap<>();
+
+    // identical reads that arrive while one is already running wait for it instead of querying again,
+    // as long as it started at the current collection version, i.e. after every committed write they know of
+    private final SingleFlight<Integer, Message> msgByIdFlight = new SingleFlight<>();
+    private final SingleFlight<Integer, List<Message>> userMsgsFlight = new SingleFlight<>();
 
     @Autowired
-    public MessageService(MessageRepository msgRep) {
+    public MessageService(MessageRepository msgRep, MessageSearchIndex searchIndex, MessageEventHub eventHub,
+                          MessageArchive archive, MessageEventLog eventLog, MessageOutbox outbox,
+                          OffHeapMessageCache offHeapCache, AccountMessageIndex accountIndex,
+                          MessageCounters counters, InputValidator validator, EntityManager entityManager,
+                          PlatformTransactionManager transactionManager) {
         this.msgRep = msgRep;
+        this.searchIndex = searchIndex;
+        this.eventHub = eventHub;
+        this.archive = archive;
+        this.eventLog = eventLog;
+        this.outbox = outbox;
+        this.offHeapCache = offHeapCache;
+        this.accountIndex = accountIndex;
+        this.counters = counters;
+        this.validator = validator;
+        this.entityManager = entityManager;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * Builds the search index and the per-account message index from the messages already in the
+     * database (and archive) once the app has started. Requests are already being served by then; the
+     * changes they make while the messages are loaded are replayed onto the rebuilt indexes.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void rebuildIndexes() {
+        this.searchIndex.beginRebuild();
+        this.accountIndex.beginRebuild();
+        List<Message> allMsgs;
+        try {
+            allMsgs = this.findAllMessages();
+        } catch (RuntimeException e) {
+            this.searchIndex.cancelRebuild();
+            this.accountIndex.cancelRebuild();
+            throw e;
+        }
+        this.searchIndex.rebuild(allMsgs);
+        this.accountIndex.rebuild(allMsgs);
+    }
+
+    /**
+     * Checks the message counts against the real counts in the database and archive, once the app has
+     * started and then periodically. If they drifted, the per-account message index they come from is rebuilt;
+     * changes made while the counts were taken don't count as drift.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(fixedDelayString = "${app.counters.reconcile-interval-ms:300000}",
+               initialDelayString = "${app.counters.reconcile-interval-ms:300000}")
+    public void reconcileCounters() {
+        long drift = this.counters.reconcile(() -> {
+            Map<Integer, Long> counts = this.archive.countByPostedBy();
+            for (Object[] row : this.msgRep.countMessagesPerPostedBy()) {
+                if (row[0] != null) {
+                    counts.merge((Integer) row[0], (Long) row[1], Long::sum);
+                }
+            }
+            return counts;
+        });
+        if (drift > 0) {
+            this.accountIndex.beginRebuild();
+            List<Message> allMsgs;
+            try {
+                allMsgs = this.findAllMessages();
+            } catch (RuntimeException e) {
+                this.accountIndex.cancelRebuild();
+                throw e;
+            }
+            this.accountIndex.rebuild(allMsgs);
+        }
+    }
+
+    /**
+     * @return every message, archived ones first
+     */
+    private List<Message> findAllMessages() {
+        List<Message> msgs = new ArrayList<>(this.archive.findAll());
+        msgs.addAll(this.msgRep.findAll());
+        return msgs;
     }
 
     /**
@@ -23,18 +157,57 @@ public class MessageService {
      * Message will be persisted if:
      * - It is not blank
      * - Message text is not over 255 characters
+     * - Message text is well formed (see InputValidator)
      * @param msg
+     * The change is recorded in the outbox in the same transaction; everything else hears of it once it is committed.
      * @return the persisted message. null if otherwise.
      */
+    @Transactional
     public Message persistMessage(Message msg) {
-        String msgText = msg.getMessageText();
-        
         // guard statement 
-        if (msgText == "" || msgText == null || msgText.length() > 255)
+        if (!this.validator.isValidMessageText(msg.getMessageText()))
             return null;
         
-        // persist message to database 
-        return this.msgRep.save(msg);
+        // persist message to database, always as a new message at the first version
+        msg.setVersion(null);
+        Message persistedMsg = this.msgRep.save(msg);
+        this.publish(new MessageEvent(MessageEvent.Type.CREATED, persistedMsg), () -> {
+            this.searchIndex.index(persistedMsg);
+            this.accountIndex.add(persistedMsg);
+            this.counters.messageCreated();
+        });
+        return persistedMsg;
+    }
+
+    /**
+     * Saves a chunk of new messages from a bulk import in one transaction, the inserts going out in
+     * JDBC batches. The messages must already have been checked (text and poster); each is then
+     * recorded the same way as a message created through persistMessage.
+     * Once the chunk is flushed the persistence context is cleared, so that an import of any size
+     * doesn't keep every message it saved managed until the request ends. Callers must not rely on
+     * entities they loaded earlier in the same persistence context staying managed.
+     * The changes are recorded in the outbox in the same transaction; everything else hears of them once they are committed.
+     * @param msgs
+     * @return the persisted messages
+     */
+    @Transactional
+    public List<Message> importMessages(List<Message> msgs) {
+        for (Message msg : msgs) {
+            // always new messages at the first version, never an overwrite of an existing one
+            msg.setMessageId(null);
+            msg.setVersion(null);
+        }
+        List<Message> persistedMsgs = this.msgRep.saveAll(msgs);
+        for (Message persistedMsg : persistedMsgs) {
+            this.publish(new MessageEvent(MessageEvent.Type.CREATED, persistedMsg), () -> {
+                this.searchIndex.index(persistedMsg);
+                this.accountIndex.add(persistedMsg);
+                this.counters.messageCreated();
+            });
+        }
+        this.msgRep.flush();
+        this.entityManager.clear();
+        return persistedMsgs;
     }
 
     /**
@@ -46,12 +219,39 @@ public class MessageService {
     }
 
     /**
-     * Calls the repository to get a message by its ID from the database.
-     * This method is called by other methods in this class to check if message exists.
+     * Calls the repository to get a message by its ID from the database, falling back to the
+     * archive for messages that have been moved there.
+     * Messages are served from the off-heap cache when it is enabled and holds them.
+     * Concurrent reads of the same ID share one repository call, unless a write was committed in between.
      * @param msgId
      * @return Message. Null if not found.
      */
     public Message getMessageById(Integer msgId) {
+        Message cached = this.offHeapCache.get(msgId);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = this.offHeapCache.getGeneration(msgId);
+        return this.msgByIdFlight.get(msgId, this.allMsgsVersion.get(), () -> {
+            Message msg = this.findMessageById(msgId);
+            if (msg == null) {
+                msg = this.archive.find(msgId);
+            }
+            if (msg != null) {
+                this.offHeapCache.put(msg, generation);
+            }
+            return msg;
+        });
+    }
+
+    /**
+     * Gets a message by its ID straight from the repository.
+     * This method is called by other methods in this class to check if message exists; they
+     * modify the message they get back, so it must never be shared with another caller.
+     * @param msgId
+     * @return Message. Null if not found.
+     */
+    private Message findMessageById(Integer msgId) {
         Optional<Message> searchedMsg = this.msgRep.findById(msgId);
         if (searchedMsg.isPresent()) {
             return searchedMsg.get();
@@ -61,25 +261,75 @@ public class MessageService {
 
     /**
      * Deletes the message from the database based on it's ID. 
+     * The row is only marked deleted and disappears from all reads; DeletedMessagePurger removes it later.
      * @param msgId
+     * The change is recorded in the outbox in the same transaction.
      * @return The number of affected rows after the delete.
      */
     public Integer deleteMessageById(Integer msgId) {
+        return this.deleteMessageById(msgId, null);
+    }
 
-        if (this.getMessageById(msgId) == null) {
-            return 0;
-        }
+    /**
+     * Deletes the message from the database based on it's ID, as long as it is still at the expected version.
+     * An archived message is deleted from the archive; it has no version, so the only version it is at
+     * is ARCHIVED_VERSION, the one read from its tag.
+     * @param msgId
+     * @param expectedVersion the version the caller last saw. null to delete whatever the version.
+     * The change is recorded in the outbox in the same transaction; everything else hears of it once it is committed.
+     * @return The number of affected rows after the delete.
+     * @throws MessageVersionConflictException if the message is at a different version
+     * @throws org.springframework.dao.ConcurrencyFailureException if the message changed while being deleted
+     */
+    @Transactional
+    public Integer deleteMessageById(Integer msgId, Long expectedVersion) {
 
-        // in order to get the number of updated rows after the delete, we will 
-        // take the difference of messages in the table before and after the delete
-        Integer msgsBeforeDelete = this.msgRep.findAll().size();
+        Message msgToDelete = this.findMessageById(msgId);
+        if (msgToDelete == null) {
+            return this.deleteArchivedMessage(msgId, expectedVersion);
+        }
+        checkVersion(msgToDelete, expectedVersion);
         
-        // execute delete
-        this.msgRep.deleteById(msgId);
+        // execute delete. Flushing runs the version checked soft delete UPDATE now, before anything else
+        // is told about it; it fails unless exactly the one row was marked, so once it is through one row was deleted.
+        this.flushVersionChecked(msgId, expectedVersion, () -> {
+            this.msgRep.deleteById(msgId);
+            this.msgRep.flush();
+        });
+        this.evictFromCache(msgId);
+        this.publish(new MessageEvent(MessageEvent.Type.DELETED, msgToDelete), () -> {
+            this.searchIndex.remove(msgId);
+            this.accountIndex.remove(msgId, msgToDelete.getPostedBy());
+            this.counters.messageDeleted();
+        });
 
-        Integer msgsAfterDelete = this.msgRep.findAll().size();
+        return 1;
+    }
 
-        return msgsBeforeDelete - msgsAfterDelete;
+    private Integer deleteArchivedMessage(Integer msgId, Long expectedVersion) {
+        Message archived = this.archive.find(msgId);
+        if (archived == null) {
+            return 0;
+        }
+        if (expectedVersion != null && expectedVersion != ARCHIVED_VERSION) {
+            throw new MessageVersionConflictException(msgId, expectedVersion, null);
+        }
+        try {
+            archived = this.archive.delete(msgId);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not delete archived message", e);
+        }
+        if (archived == null) {
+            return 0;
+        }
+        Message deletedMsg = archived;
+        this.evictFromCache(msgId);
+        this.publish(new MessageEvent(MessageEvent.Type.DELETED, deletedMsg), () -> {
+            this.searchIndex.remove(msgId);
+            this.accountIndex.remove(msgId, deletedMsg.getPostedBy());
+            this.counters.messageDeleted();
+        });
+        return 1;
     }
 
     /**
@@ -88,34 +338,456 @@ public class MessageService {
      * - Message is not blank
      * - Message is not over 255 chars long
      * @param msgId
+     * The change is recorded in the outbox in the same transaction.
      * @return Number of rows updated
      */
     public Integer updateMessageById(Integer msgId, String msgText) {
+        return this.updateMessageById(msgId, msgText, null);
+    }
+
+    /**
+     * Calls the message repo to update a message in the database given an ID, as long as it is
+     * still at the expected version. Rules are the same as updateMessageById(msgId, msgText).
+     * The update itself is version checked too, so a concurrent update that got in first is never overwritten.
+     * @param msgId
+     * @param msgText
+     * @param expectedVersion the version the caller last saw. null to update whatever the version.
+     * The change is recorded in the outbox in the same transaction; everything else hears of it once it is committed.
+     * @return Number of rows updated
+     * @throws MessageVersionConflictException if the message is at a different version
+     * @throws org.springframework.dao.ConcurrencyFailureException if the message changed while being updated
+     */
+    @Transactional
+    public Integer updateMessageById(Integer msgId, String msgText, Long expectedVersion) {
 
         // check message text for validity 
-        if (msgText == "" || msgText == null || msgText.length() > 255)
+        if (!this.validator.isValidMessageText(msgText))
             return 0;
 
         
         // attempt to get message and make sure it exists before further editing
-        Message retrievedMsg = this.getMessageById(msgId);
+        Message retrievedMsg = this.findMessageById(msgId);
         if (retrievedMsg == null) {
             return 0;
         }
+        checkVersion(retrievedMsg, expectedVersion);
 
-        // update text in message and save it to the database and return 1
+        // update text in message and save it to the database and return 1.
+        // Flushing runs the version checked UPDATE now, before anything else is told about it.
         retrievedMsg.setMessageText(msgText);
-        this.msgRep.save(retrievedMsg);
+        this.flushVersionChecked(msgId, expectedVersion, () -> this.msgRep.saveAndFlush(retrievedMsg));
+        this.evictFromCache(msgId);
+        this.publish(new MessageEvent(MessageEvent.Type.UPDATED, retrievedMsg), () -> {
+            this.searchIndex.index(retrievedMsg);
+            this.counters.messageUpdated();
+        });
 
         return 1;
     }
 
     /**
-     * Calls the Repository to get all messages posted by a user given an ID
+     * Calls the Repository to get all messages posted by a user given an ID, including
+     * the user's archived messages (which come first, being the oldest).
+     * Concurrent reads for the same account share one repository call, unless one of its messages
+     * was changed in between.
      * @param account ID
      * @return a list of all messages from the user 
      */
     public List<Message> getMessagesFromUser(Integer accId) {
-        return this.msgRep.findMessagesByPostedBy(accId);
+        AtomicLong version = this.userMsgsVersions.get(accId);
+        return this.userMsgsFlight.get(accId, version == null ? 0 : version.get(), () -> {
+            List<Message> msgs = this.archive.findByPostedBy(accId);
+            msgs.addAll(this.msgRep.findMessagesByPostedBy(accId));
+            return msgs;
+        });
+    }
+
+    /**
+     * Gets a page of the messages posted by an account, in ID order, using the per-account index
+     * so only the messages on the page are loaded.
+     * @param accId
+     * @param afterId cursor: the last message ID of the previous page. null for the first page.
+     * @param limit max number of messages in the page
+     * @return the messages of the page. Empty once the end is reached.
+     */
+    public List<Message> getMessagesFromUserPage(Integer accId, Integer afterId, int limit) {
+        List<Integer> ids = new ArrayList<>();
+        for (int id : this.accountIndex.page(accId, afterId, limit)) {
+            ids.add(id);
+        }
+        return this.findAllInOrder(ids);
+    }
+
+    /**
+     * Gets many messages by ID at once. Messages in the off-heap cache are served from it, the rest
+     * are loaded with a single query, and any still missing are looked up in the archive.
+     * @param msgIds
+     * @return message ID -> message, for the IDs that were found
+     */
+    public Map<Integer, Message> getMessagesByIds(Collection<Integer> msgIds) {
+        Map<Integer, Message> found = new HashMap<>();
+        // message ID -> its cache generation, taken before loading it
+        Map<Integer, Long> toLoad = new LinkedHashMap<>();
+        for (Integer id : new LinkedHashSet<>(msgIds)) {
+            Message cached = this.offHeapCache.get(id);
+            if (cached != null) {
+                found.put(id, cached);
+            } else {
+                toLoad.put(id, this.offHeapCache.getGeneration(id));
+            }
+        }
+        if (toLoad.isEmpty()) {
+            return found;
+        }
+
+        for (Message msg : this.msgRep.findAllById(toLoad.keySet())) {
+            found.put(msg.getMessageId(), msg);
+            this.offHeapCache.put(msg, toLoad.get(msg.getMessageId()));
+        }
+        for (Integer id : toLoad.keySet()) {
+            if (!found.containsKey(id)) {
+                Message archived = this.archive.find(id);
+                if (archived != null) {
+                    found.put(id, archived);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Gets messages posted within a time range, oldest first, one page at a time. Pages are
+     * continued from a (time, message ID) cursor, so each page is a range scan on the time index
+     * that starts where the previous one ended. Archived messages are not included.
+     * @param accId only messages posted by this account. null for all accounts.
+     * @param since epoch second the range starts at (inclusive)
+     * @param until epoch second the range ends at (exclusive)
+     * @param afterTime post time of the last message of the previous page. null for the first page.
+     * @param afterId ID of the last message of the previous page. null for the first page.
+     * @param limit max number of messages in the page
+     * @return the messages of the page. Empty once the end is reached.
+     */
+    public List<Message> getMessagesBetween(Integer accId, long since, long until, Long afterTime, Integer afterId, int limit) {
+        long fromTime = since;
+        long cursorTime = Long.MIN_VALUE;
+        int cursorId = Integer.MIN_VALUE;
+        if (afterTime != null && afterId != null) {
+            // start the scan at the cursor rather than at the beginning of the range
+            fromTime = Math.max(since, afterTime);
+            cursorTime = afterTime;
+            cursorId = afterId;
+        }
+        PageRequest page = PageRequest.of(0, limit);
+        if (accId == null) {
+            return this.msgRep.findPostedBetween(fromTime, until, cursorTime, cursorId, page);
+        }
+        return this.msgRep.findPostedByBetween(accId, fromTime, until, cursorTime, cursorId, page);
+    }
+
+    /**
+     * Moves messages older than the archive's age threshold out of the message table and into
+     * the archive, in batches. Runs in the background when archiving is enabled.
+     * Each batch is one transaction: its rows are locked as they are read, written to the archive,
+     * and removed, so a concurrent update or delete of one of them waits and then finds it archived
+     * rather than being lost. If the archive can't be written the rows stay where they are.
+     * @return number of messages archived
+     */
+    @Scheduled(fixedDelayString = "${app.archive.interval-ms:3600000}",
+               initialDelayString = "${app.archive.initial-delay-ms:60000}")
+    public int archiveOldMessages() {
+        if (!this.archive.isEnabled()) {
+            return 0;
+        }
+        int archived = 0;
+        int batchSize;
+        do {
+            batchSize = this.transactionTemplate.execute(status -> this.archiveBatch());
+            archived += batchSize;
+        } while (batchSize == 500);
+        return archived;
+    }
+
+    private int archiveBatch() {
+        List<Message> batch = this.msgRep.findTop500ByTimePostedEpochLessThanOrderByMessageIdAsc(this.archive.getCutoffEpochSecond());
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        try {
+            this.archive.append(batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write archive segment", e);
+        }
+
+        // only remove the rows once the segment is safely on disk
+        for (Message msg : batch) {
+            this.evictFromCache(msg.getMessageId());
+        }
+        this.deleteArchivedRows(batch);
+        afterCommit(() -> {
+            for (Message msg : batch) {
+                this.bumpVersions(msg.getPostedBy());
+            }
+        });
+        return batch.size();
+    }
+
+    /**
+     * Deletes the rows of archived messages in one JDBC batch. A bulk delete through Hibernate would
+     * empty the whole message cache region on every batch; instead only these messages are evicted, and
+     * the query cache is told the message table changed the way it is for any other delete.
+     */
+    private void deleteArchivedRows(List<Message> batch) {
+        Session session = this.entityManager.unwrap(Session.class);
+        session.doWork(connection -> {
+            try (PreparedStatement delete = connection.prepareStatement("DELETE FROM message WHERE messageId = ?")) {
+                for (Message msg : batch) {
+                    delete.setInt(1, msg.getMessageId());
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+        });
+        SessionImplementor sessionImpl = session.unwrap(SessionImplementor.class);
+        for (Message msg : batch) {
+            sessionImpl.getFactory().getCache().evictEntityData(Message.class, msg.getMessageId());
+        }
+        TimestampsCache timestamps = sessionImpl.getFactory().getCache().getTimestampsCache();
+        Serializable[] tables = sessionImpl.getFactory().getMetamodel().entityPersister(Message.class).getQuerySpaces();
+        timestamps.preInvalidate(tables, sessionImpl);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                timestamps.invalidate(tables, sessionImpl);
+            }
+        });
+    }
+
+    /**
+     * @return how many message reads (by ID and by account) queried the repository, and how many
+     *         were served by sharing another in-flight read instead
+     */
+    public Map<String, Object> getSharedReadStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("executions", this.msgByIdFlight.getExecutions() + this.userMsgsFlight.getExecutions());
+        stats.put("coalesced", this.msgByIdFlight.getCoalesced() + this.userMsgsFlight.getCoalesced());
+        return stats;
+    }
+
+    /**
+     * @param accId
+     * @return number of messages posted by the account, from the running counters
+     */
+    public long countMessagesFromUser(Integer accId) {
+        return this.counters.count(accId);
+    }
+
+    /**
+     * @return message totals and change counts, from the running counters
+     */
+    public Map<String, Object> getMessageStats() {
+        return this.counters.getStats();
+    }
+
+    /**
+     * @return hit, miss and eviction figures of the off-heap message cache
+     */
+    public Map<String, Object> getOffHeapCacheStats() {
+        return this.offHeapCache.getStats();
+    }
+
+    /**
+     * @return delivered and pending counts and delivery lag of the message outbox
+     */
+    public Map<String, Object> getOutboxStats() {
+        return this.outbox.getStats();
+    }
+
+    /**
+     * Searches message text for the given query using the search index.
+     * @param query
+     * @param page zero based page number
+     * @param size max number of messages per page
+     * @return the matching messages, best match first. Empty if nothing matched.
+     */
+    public List<Message> searchMessages(String query, int page, int size) {
+        List<Integer> rankedIds = this.searchIndex.search(query, page, size);
+        if (rankedIds.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // fetch the page in one query, in ranked order
+        return this.findAllInOrder(rankedIds);
+    }
+
+    /**
+     * Subscribes to a live stream of message creations, updates and deletions.
+     * @param postedBy only stream messages posted by this account. null for all messages.
+     * @return the emitter that events will be pushed to
+     */
+    public SseEmitter subscribe(Integer postedBy) {
+        return this.eventHub.subscribe(postedBy);
+    }
+
+    /**
+     * Gets an entity tag for the list of all messages. The tag changes whenever any message
+     * is created, updated or deleted. It also covers every single message, since a change to
+     * any one of them changes the collection.
+     * The tag is weak since the same version may be sent as JSON or CBOR, compressed or not.
+     * @return a weak entity tag
+     */
+    public String getAllMessagesTag() {
+        return "W/\"" + this.bootId + "-" + this.allMsgsVersion.get() + "\"";
+    }
+
+    /**
+     * Gets an entity tag for a single message. The tag changes whenever the message is updated,
+     * and is strong so that it can be used in If-Match for conditional updates and deletes.
+     * @param msg
+     * @return a strong entity tag
+     */
+    public String getMessageTag(Message msg) {
+        // archived messages are never changed again and don't carry a version
+        String version = msg.getVersion() == null ? ARCHIVED_TAG_VERSION : msg.getVersion().toString();
+        return "\"" + this.bootId + "-" + msg.getMessageId() + "-" + version + "\"";
+    }
+
+    /**
+     * Reads the version back out of a tag made by getMessageTag.
+     * @param msgId
+     * @param tag
+     * @return the version, ARCHIVED_VERSION for the tag of an archived message. null if the tag isn't a
+     *         tag of this message (or is from before a restart).
+     */
+    public Long getVersionFromTag(Integer msgId, String tag) {
+        String prefix = "\"" + this.bootId + "-" + msgId + "-";
+        if (tag == null || !tag.startsWith(prefix) || !tag.endsWith("\"") || tag.length() == prefix.length()) {
+            return null;
+        }
+        String version = tag.substring(prefix.length(), tag.length() - 1);
+        if (version.equals(ARCHIVED_TAG_VERSION)) {
+            return ARCHIVED_VERSION;
+        }
+        try {
+            return Long.parseLong(version);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Gets an entity tag for the list of messages posted by an account. The tag only changes
+     * when one of that account's messages is created, updated or deleted.
+     * @param accId
+     * @return a weak entity tag
+     */
+    public String getMessagesFromUserTag(Integer accId) {
+        AtomicLong version = this.userMsgsVersions.get(accId);
+        return "W/\"" + this.bootId + "-u" + accId + "-" + (version == null ? 0 : version.get()) + "\"";
+    }
+
+    /**
+     * Loads messages in one query, falling back to the archive for IDs not in the table.
+     * @param ids
+     * @return the messages that were found, in the order of the IDs
+     */
+    private List<Message> findAllInOrder(List<Integer> ids) {
+        Map<Integer, Message> msgsById = new HashMap<>();
+        for (Message msg : this.msgRep.findAllById(ids)) {
+            msgsById.put(msg.getMessageId(), msg);
+        }
+        List<Message> orderedMsgs = new ArrayList<>();
+        for (Integer id : ids) {
+            Message msg = msgsById.get(id);
+            if (msg == null) {
+                msg = this.archive.find(id);
+            }
+            if (msg != null) {
+                orderedMsgs.add(msg);
+            }
+        }
+        return orderedMsgs;
+    }
+
+    /**
+     * Records a message change in the outbox, as part of the current transaction. Once the transaction
+     * commits, the in-memory state is updated, the collection tags are bumped, and the change is
+     * written to the event log and pushed to live stream subscribers. Until then nothing outside the
+     * transaction can see the change, and if it rolls back nothing ever does.
+     * @param event
+     * @param applyToIndexes updates the indexes and counters, after commit
+     */
+    private void publish(MessageEvent event, Runnable applyToIndexes) {
+        this.outbox.record(event);
+        afterCommit(() -> {
+            applyToIndexes.run();
+            this.bumpVersions(event.getMessage().getPostedBy());
+            this.eventLog.append(event);
+            this.eventHub.publish(event);
+        });
+    }
+
+    /**
+     * Runs an action once the current transaction has committed, or right away if there is none.
+     */
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    /**
+     * Runs a write of one message and flushes it, as a version checked statement of its own rather than
+     * part of a JDBC batch. If another change got in since the message was read, the statement matches no
+     * row and fails with an optimistic locking failure for this message (not a failed batch).
+     * @param msgId
+     * @param expectedVersion the version the client expects. null if it didn't ask for one.
+     * @param write
+     * @throws MessageVersionConflictException if the write lost and the client expected a version:
+     *         its precondition no longer holds
+     * @throws ObjectOptimisticLockingFailureException if the write lost and the client didn't expect
+     *         a version, so it may be tried again
+     */
+    private void flushVersionChecked(Integer msgId, Long expectedVersion, Runnable write) {
+        Session session = this.entityManager.unwrap(Session.class);
+        Integer batchSize = session.getJdbcBatchSize();
+        session.setJdbcBatchSize(1);
+        try {
+            write.run();
+        } catch (ObjectOptimisticLockingFailureException e) {
+            if (expectedVersion == null) {
+                throw e;
+            }
+            throw new MessageVersionConflictException(msgId, expectedVersion);
+        } finally {
+            session.setJdbcBatchSize(batchSize);
+        }
+    }
+
+    private static void checkVersion(Message msg, Long expectedVersion) {
+        if (expectedVersion != null && !expectedVersion.equals(msg.getVersion())) {
+            throw new MessageVersionConflictException(msg.getMessageId(), expectedVersion, msg.getVersion());
+        }
+    }
+
+    /**
+     * Drops a changed message from the off-heap cache, and again once the change is committed:
+     * a read in between still sees the old row and may have cached it again.
+     */
+    private void evictFromCache(Integer msgId) {
+        this.offHeapCache.invalidate(msgId);
+        afterCommit(() -> this.offHeapCache.invalidate(msgId));
+    }
+
+    private void bumpVersions(Integer postedBy) {
+        if (postedBy != null) {
+            this.userMsgsVersions.computeIfAbsent(postedBy, k -> new AtomicLong()).incrementAndGet();
+        }
+        this.allMsgsVersion.incrementAndGet();
     }
 }
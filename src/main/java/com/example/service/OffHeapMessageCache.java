@@ -0,0 +1,366 @@
+package com.example.service;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.example.entity.Message;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A cache of messages by ID that keeps the messages outside the Java heap, so that a very large
+ * hot set doesn't add to garbage collection work.
+ *
+ * Messages are stored serialized in fixed-size slots of direct ByteBuffer slabs. A message too big
+ * for a slot is simply not cached. The slot of a message is found through an open addressing
+ * (linear probing) hash table of primitive ints, and when all slots are taken a CLOCK sweep evicts
+ * a message that hasn't been read since the hand last passed it.
+ *
+ * Readers don't block each other or take any lock: they read optimistically and only fall back
+ * to a read lock if a writer changed the cache meanwhile.
+ *
+ * A message loaded before it was invalidated must not be cached afterwards. Invalidations bump the
+ * generation of the message ID's stripe, and a put is dropped if that stripe's generation moved
+ * since the load began; a write only cancels the concurrent puts of messages in its own stripe.
+ *
+ * Slot layout: [message ID][version][record length][record]
+ * The version isn't part of the shared record encoding, so it is kept in the slot header.
+ * A version of -1 marks a message without one (an archived message).
+ */
+@Component
+public class OffHeapMessageCache {
+
+    private static final int HEADER_BYTES = 14;
+    private static final int MAX_SLAB_BYTES = 1 << 30;
+    private static final int GENERATION_STRIPES = 1024;
+
+    private final boolean enabled;
+    private final int slotBytes;
+    private final int slotCount;
+    private final int slotsPerSlab;
+    private final ByteBuffer[] slabs;
+
+    // message ID -> slot number + 1. 0 marks an empty bucket.
+    private final int[] indexKeys;
+    private final int[] indexSlots;
+    private final int indexMask;
+
+    // slot -> message ID in it, CLOCK reference bit, and slots freed by invalidation
+    private final int[] slotIds;
+    private final byte[] referenced;
+    private final int[] freeSlots;
+    private int freeCount;
+    private int usedSlots;
+    private int hand;
+    private int size;
+
+    // per stripe of message IDs, bumped by every invalidation in it, so that a read that started
+    // before it doesn't cache what it loaded
+    private final AtomicLongArray generations = new AtomicLongArray(GENERATION_STRIPES);
+    private final StampedLock lock = new StampedLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public OffHeapMessageCache(@Value("${app.offheap-cache.enabled:false}") boolean enabled,
+                               @Value("${app.offheap-cache.max-entries:1000000}") int maxEntries,
+                               @Value("${app.offheap-cache.slot-bytes:256}") int slotBytes) {
+        this.enabled = enabled;
+        this.slotBytes = slotBytes;
+        this.slotCount = enabled ? maxEntries : 0;
+        this.slotsPerSlab = MAX_SLAB_BYTES / slotBytes;
+
+        int slabCount = (slotCount + slotsPerSlab - 1) / slotsPerSlab;
+        this.slabs = new ByteBuffer[slabCount];
+        for (int i = 0; i < slabCount; i++) {
+            int slots = Math.min(slotsPerSlab, slotCount - i * slotsPerSlab);
+            this.slabs[i] = ByteBuffer.allocateDirect(slots * slotBytes);
+        }
+
+        // at most half full, so probe sequences stay short
+        int buckets = Integer.highestOneBit(Math.max(slotCount, 1) * 2 - 1) << 1;
+        this.indexKeys = new int[buckets];
+        this.indexSlots = new int[buckets];
+        this.indexMask = buckets - 1;
+        this.slotIds = new int[slotCount];
+        this.referenced = new byte[slotCount];
+        this.freeSlots = new int[slotCount];
+    }
+
+    /**
+     * @return true if the off-heap cache is turned on
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Looks up a cached message.
+     * @param msgId
+     * @return a new copy of the message. null if it isn't cached.
+     */
+    public Message get(Integer msgId) {
+        if (!enabled || msgId == null) {
+            return null;
+        }
+        byte[] record = null;
+        long[] version = new long[1];
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                record = this.readRecord(msgId, version);
+            } catch (RuntimeException e) {
+                // torn read while a writer was busy, redone below under the lock
+                stamp = 0;
+            }
+        }
+        if (stamp == 0 || !lock.validate(stamp)) {
+            stamp = lock.readLock();
+            try {
+                record = this.readRecord(msgId, version);
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+
+        if (record == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        try {
+            Message msg = MessageCodec.read(new DataInputStream(new ByteArrayInputStream(record)));
+            msg.setVersion(version[0] < 0 ? null : version[0]);
+            return msg;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param msgId
+     * @return the message's current generation, to be taken before loading a message that will be cached
+     */
+    public long getGeneration(Integer msgId) {
+        return msgId == null ? 0 : generations.get(stripeOf(msgId));
+    }
+
+    /**
+     * Caches a message, unless it was invalidated since the generation was taken.
+     * @param msg
+     * @param loadedAtGeneration the message's generation taken before it was loaded
+     */
+    public void put(Message msg, long loadedAtGeneration) {
+        if (!enabled) {
+            return;
+        }
+        byte[] record = encode(msg);
+        if (record.length > slotBytes - HEADER_BYTES) {
+            rejected.increment();
+            return;
+        }
+        int msgId = msg.getMessageId();
+
+        long stamp = lock.writeLock();
+        try {
+            if (generations.get(stripeOf(msgId)) != loadedAtGeneration) {
+                return;
+            }
+            int bucket = this.findBucket(msgId);
+            int slot;
+            if (bucket >= 0) {
+                slot = indexSlots[bucket] - 1;
+            } else {
+                slot = this.allocateSlot();
+                bucket = this.findBucket(msgId);
+                indexKeys[-bucket - 1] = msgId;
+                indexSlots[-bucket - 1] = slot + 1;
+                slotIds[slot] = msgId;
+                size++;
+            }
+            ByteBuffer slab = slabs[slot / slotsPerSlab];
+            int offset = (slot % slotsPerSlab) * slotBytes;
+            slab.putInt(offset, msgId);
+            slab.putLong(offset + 4, msg.getVersion() == null ? -1L : msg.getVersion());
+            slab.putShort(offset + 12, (short) record.length);
+            ByteBuffer view = slab.duplicate();
+            view.position(offset + HEADER_BYTES);
+            view.put(record);
+            referenced[slot] = 1;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Drops a message from the cache.
+     * @param msgId
+     */
+    public void invalidate(Integer msgId) {
+        if (!enabled || msgId == null) {
+            return;
+        }
+        long stamp = lock.writeLock();
+        try {
+            generations.incrementAndGet(stripeOf(msgId));
+            int bucket = this.findBucket(msgId);
+            if (bucket >= 0) {
+                int slot = indexSlots[bucket] - 1;
+                this.removeBucket(bucket);
+                referenced[slot] = 0;
+                freeSlots[freeCount++] = slot;
+                size--;
+            }
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return hit, miss, eviction and size figures of the cache
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("hits", hits.sum());
+        stats.put("misses", misses.sum());
+        stats.put("evictions", evictions.sum());
+        stats.put("rejected", rejected.sum());
+        long stamp = lock.readLock();
+        try {
+            stats.put("entries", size);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+        stats.put("maxEntries", slotCount);
+        stats.put("offHeapBytes", (long) slotCount * slotBytes);
+        return stats;
+    }
+
+    /**
+     * Copies a cached record out of its slot. May run without a lock, in which case the result is
+     * only trusted if the lock's stamp is still valid afterwards.
+     * @param version receives the message's version in its first element
+     */
+    private byte[] readRecord(int msgId, long[] version) {
+        int bucket = this.findBucket(msgId);
+        if (bucket < 0) {
+            return null;
+        }
+        int slot = indexSlots[bucket] - 1;
+        ByteBuffer slab = slabs[slot / slotsPerSlab];
+        int offset = (slot % slotsPerSlab) * slotBytes;
+        if (slab.getInt(offset) != msgId) {
+            return null;
+        }
+        int length = slab.getShort(offset + 12) & 0xFFFF;
+        if (length > slotBytes - HEADER_BYTES) {
+            return null;
+        }
+        byte[] record = new byte[length];
+        ByteBuffer view = slab.duplicate();
+        view.position(offset + HEADER_BYTES);
+        view.get(record);
+        version[0] = slab.getLong(offset + 4);
+        referenced[slot] = 1;
+        return record;
+    }
+
+    /**
+     * @return the bucket holding the message ID, or -(empty bucket where it would go) - 1
+     */
+    private int findBucket(int msgId) {
+        int bucket = hash(msgId) & indexMask;
+        for (int probes = 0; probes <= indexMask; probes++) {
+            if (indexSlots[bucket] == 0) {
+                return -bucket - 1;
+            }
+            if (indexKeys[bucket] == msgId) {
+                return bucket;
+            }
+            bucket = (bucket + 1) & indexMask;
+        }
+        // only possible in a torn optimistic read
+        throw new IllegalStateException("Probed the whole index");
+    }
+
+    /**
+     * Empties a bucket and shifts later entries of the probe sequence back, so no tombstones are needed.
+     */
+    private void removeBucket(int bucket) {
+        int hole = bucket;
+        indexSlots[hole] = 0;
+        int next = hole;
+        while (true) {
+            next = (next + 1) & indexMask;
+            if (indexSlots[next] == 0) {
+                return;
+            }
+            int home = hash(indexKeys[next]) & indexMask;
+            // the entry may move into the hole unless its home lies cyclically in (hole, next]
+            boolean homeBetween = hole <= next ? (home > hole && home <= next) : (home > hole || home <= next);
+            if (!homeBetween) {
+                indexKeys[hole] = indexKeys[next];
+                indexSlots[hole] = indexSlots[next];
+                indexSlots[next] = 0;
+                hole = next;
+            }
+        }
+    }
+
+    /**
+     * Picks a slot for a new message: a freed one, an unused one, or else one evicted by the CLOCK hand.
+     */
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (usedSlots < slotCount) {
+            return usedSlots++;
+        }
+        while (true) {
+            int slot = hand;
+            hand = (hand + 1) % slotCount;
+            if (referenced[slot] != 0) {
+                // read since the hand last came by, gets another round
+                referenced[slot] = 0;
+                continue;
+            }
+            this.removeBucket(this.findBucket(slotIds[slot]));
+            size--;
+            evictions.increment();
+            return slot;
+        }
+    }
+
+    private static byte[] encode(Message msg) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            MessageCodec.write(new DataOutputStream(bytes), msg);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int stripeOf(int msgId) {
+        return hash(msgId) & (GENERATION_STRIPES - 1);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
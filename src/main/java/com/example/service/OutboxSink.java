@@ -0,0 +1,15 @@
+package com.example.service;
+
+import com.example.entity.OutboxEvent;
+
+import java.util.List;
+
+/**
+ * Where the outbox relay delivers message changes. A batch only counts as delivered once
+ * send returns normally; if it throws, the same events are retried later, so a sink may
+ * see an event more than once.
+ */
+public interface OutboxSink {
+
+    void send(List<OutboxEvent> events) throws Exception;
+}
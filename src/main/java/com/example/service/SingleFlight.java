@@ -0,0 +1,101 @@
+package com.example.service;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collapses concurrent identical reads into one. While a load for a key is in flight, other
+ * callers asking for the same key wait for that load and share its result instead of running
+ * their own. Once the load finishes the key is forgotten, so nothing is cached.
+ *
+ * Every call carries the generation of the data it wants, taken before the call (e.g. a version
+ * bumped after every committed write). A caller only joins a load that was started at the same
+ * or a later generation, so a read that follows a write never gets the result of a load that
+ * started before the write.
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executions = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Gets the result for a key, joining a load that is already in flight if it is recent enough.
+     * @param key
+     * @param generation generation of the data, taken before calling
+     * @param loader runs the actual read
+     * @return the loaded value
+     */
+    public V get(K key, long generation, Supplier<V> loader) {
+        Flight<V> mine = new Flight<>(generation);
+        while (true) {
+            Flight<V> existing = inFlight.get(key);
+            if (existing != null && existing.generation >= generation) {
+                coalesced.incrementAndGet();
+                return await(existing.result);
+            }
+            // no load, or only one from before the caller's generation: start a new one in its place
+            boolean started = existing == null
+                    ? inFlight.putIfAbsent(key, mine) == null
+                    : inFlight.replace(key, existing, mine);
+            if (started) {
+                break;
+            }
+        }
+
+        executions.incrementAndGet();
+        try {
+            V value = loader.get();
+            inFlight.remove(key, mine);
+            mine.result.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            inFlight.remove(key, mine);
+            mine.result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of loads that were actually run
+     */
+    public long getExecutions() {
+        return executions.get();
+    }
+
+    /**
+     * @return number of calls that shared another call's load
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting on an in-flight read", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static class Flight<V> {
+        final long generation;
+        final CompletableFuture<V> result = new CompletableFuture<>();
+
+        Flight(long generation) {
+            this.generation = generation;
+        }
+    }
+}
@@ -1,3 +1,4 @@
+drop table if exists outbox;
 drop table if exists message;
 drop table if exists account;
 create table account (
@@ -10,8 +11,22 @@ create table message (
     postedBy int,
     messageText varchar(255),
     timePostedEpoch bigint,
+    version bigint default 0 not null,
+    deleted boolean default false not null,
     foreign key (postedBy) references account(accountId)
 );
+-- time range queries scan these in (time, ID) order
+create index message_time_idx on message (timePostedEpoch, messageId);
+create index message_account_time_idx on message (postedBy, timePostedEpoch, messageId);
+-- the purge finds soft deleted rows through this
+create index message_deleted_idx on message (deleted, messageId);
+create table outbox (
+    outboxId bigint primary key auto_increment,
+    eventType varchar(16) not null,
+    messageId int not null,
+    payload varchar(4096),
+    createdAt bigint not null
+);
 
 -- Starting test values with ids of 9999 to avoid test issues
 insert into account values (9999, 'testuser1', 'password');
@@ -19,7 +34,7 @@ insert into account values (9998, 'testuser2', 'password');
 insert into account values (9997, 'testuser3', 'password');
 insert into account values (9996, 'testuser4', 'password');
 
-insert into message values (9999, 9999,'test message 1',1669947792);
-insert into message values (9997, 9997,'test message 2',1669947792);
-insert into message values (9996, 9996,'test message 3',1669947792);
+insert into message (messageId, postedBy, messageText, timePostedEpoch) values (9999, 9999,'test message 1',1669947792);
+insert into message (messageId, postedBy, messageText, timePostedEpoch) values (9997, 9997,'test message 2',1669947792);
+insert into message (messageId, postedBy, messageText, timePostedEpoch) values (9996, 9996,'test message 3',1669947792);
 
@@ -0,0 +1,39 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.example.entity.Message;
+import com.example.service.AccountMessageIndex;
+
+public class AccountMessageIndexTest {
+
+    /**
+     * Beginning a rebuild, then adding one message and removing another while the messages to rebuild
+     * from are "loaded", and rebuilding from a load that saw neither change.
+     *
+     * Expected Result:
+     *  Both changes are replayed onto the rebuilt index, so the added message is there, the removed
+     *  one isn't, and the counts agree.
+     */
+    @Test
+    public void changesDuringRebuildAreKept() {
+        AccountMessageIndex index = new AccountMessageIndex();
+        List<Message> loaded = new ArrayList<>();
+        loaded.add(new Message(1, 9999, "one", 1669947792L));
+        loaded.add(new Message(2, 9999, "two", 1669947792L));
+        index.rebuild(loaded);
+
+        index.beginRebuild();
+        index.add(new Message(3, 9999, "three", 1669947792L));
+        index.remove(1, 9999);
+        index.rebuild(loaded);
+
+        Assertions.assertArrayEquals(new int[] {2, 3}, index.page(9999, null, 10));
+        Assertions.assertEquals(2, index.count(9999));
+        Assertions.assertEquals(2, index.totalCount());
+    }
+}
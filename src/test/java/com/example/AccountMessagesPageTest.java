@@ -0,0 +1,98 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.example.service.AccountMessageIndex;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class AccountMessagesPageTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Posting 5 messages for an account, deleting one, then following the pages of
+     * GET localhost:8080/accounts/9998/messages?limit=2 to the end.
+     *
+     * Expected Result:
+     *  Pages of 2, 2 and 0 messages in ID order holding the 4 remaining messages, with a Link header to
+     *  the next page on every full page, and the index counting 4 messages for the account.
+     */
+    @Test
+    public void pagesFollowCursorToTheEnd() throws IOException, InterruptedException {
+        List<Integer> postedIds = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            HttpRequest postRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"postedBy\":9998,\"messageText\": \"message " + i + "\",\"timePostedEpoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            String body = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString()).body();
+            postedIds.add(objectMapper.readValue(body, Message.class).getMessageId());
+        }
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + postedIds.get(2)))
+                .DELETE()
+                .build();
+        webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+        postedIds.remove(2);
+
+        List<Integer> pagedIds = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String next = "/accounts/9998/messages?limit=2";
+        while (next != null) {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080" + next))
+                    .build();
+            HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+            Assertions.assertEquals(200, response.statusCode());
+            List<Message> page = objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+            pageSizes.add(page.size());
+            for (Message msg : page) {
+                pagedIds.add(msg.getMessageId());
+            }
+            next = response.headers().firstValue("Link")
+                    .map(link -> link.substring(1, link.indexOf('>')))
+                    .orElse(null);
+        }
+
+        Assertions.assertEquals(List.of(2, 2, 0), pageSizes);
+        Assertions.assertEquals(postedIds, pagedIds);
+        Assertions.assertEquals(4, app.getBean(AccountMessageIndex.class).count(9998));
+    }
+}
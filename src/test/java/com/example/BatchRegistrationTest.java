@@ -0,0 +1,151 @@
+package com.example;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.example.entity.Account;
+import com.example.repository.AccountRepository;
+import com.example.service.AccountService;
+import com.example.service.InputValidator;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class BatchRegistrationTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/register/batch with new, taken, invalid and repeated usernames,
+     * then logging in with one of the new accounts.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: per account 200 (with the account), 409 or 400, following the /register rules
+     *  The new accounts can log in.
+     */
+    @Test
+    public void batchRegistrationOutcomes() throws IOException, InterruptedException {
+        String batch = "["
+                + "{\"username\": \"newuser1\", \"password\": \"password\"},"
+                + "{\"username\": \"testuser1\", \"password\": \"password\"},"
+                + "{\"username\": \"\", \"password\": \"password\"},"
+                + "{\"username\": \"newuser2\", \"password\": \"abc\"},"
+                + "{\"username\": \"newuser1\", \"password\": \"password\"},"
+                + "{\"username\": \"newuser3\", \"password\": \"password\"}"
+                + "]";
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+
+        JsonNode results = objectMapper.readTree(response.body());
+        List<Integer> statuses = new ArrayList<>();
+        for (JsonNode result : results) {
+            statuses.add(result.get("status").asInt());
+        }
+        Assertions.assertEquals(List.of(200, 409, 400, 400, 409, 200), statuses);
+        Assertions.assertEquals("newuser3", results.get(5).get("account").get("username").asText());
+
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"newuser3\", \"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assertions.assertEquals(200, webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Registering a batch with a username that is taken without the batch's lookup seeing it, as when
+     * it is registered by someone else between the lookup and the insert.
+     *
+     * Expected Result:
+     *  The insert hits the unique constraint; instead of the whole batch failing, the taken username is
+     *  refused and the other account is registered.
+     */
+    @Test
+    public void usernameTakenConcurrentlyOnlyRefusesThatAccount() {
+        AccountRepository accRep = app.getBean(AccountRepository.class);
+        // a lookup that misses every taken username
+        AccountRepository staleAccRep = (AccountRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {AccountRepository.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("findAccountsByUsernameIn")) {
+                        return List.of();
+                    }
+                    try {
+                        return method.invoke(accRep, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+        AccountService accService = new AccountService(staleAccRep, app.getBean(InputValidator.class),
+                app.getBean(PlatformTransactionManager.class));
+
+        List<AccountService.RegistrationOutcome> outcomes = accService.persistAccounts(List.of(
+                new Account("raceuser1", "password"), new Account("testuser1", "password")));
+        Assertions.assertEquals(List.of(AccountService.RegistrationOutcome.REGISTERED,
+                AccountService.RegistrationOutcome.USERNAME_TAKEN), outcomes);
+        Assertions.assertNotNull(accRep.findAccountByUsername("raceuser1"));
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts?ids=9999,1,9998
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the two existing accounts in order without passwords, and the missing ID
+     */
+    @Test
+    public void lookupAccountsByIds() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts?ids=9999,1,9998"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+
+        JsonNode body = objectMapper.readTree(response.body());
+        Assertions.assertEquals("testuser1", body.get("accounts").get(0).get("username").asText());
+        Assertions.assertEquals("testuser2", body.get("accounts").get(1).get("username").asText());
+        Assertions.assertFalse(body.get("accounts").get(0).has("password"));
+        Assertions.assertEquals("[1]", body.get("missing").toString());
+    }
+}
@@ -0,0 +1,111 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+public class ConditionalGetTest {
+	ApplicationContext app;
+    HttpClient webClient;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending GET localhost:8080/messages twice, the second time with the ETag from the first.
+     *
+     * Expected Response:
+     *  Status Code: 304 with an empty body
+     */
+    @Test
+    public void getAllMessagesNotModified() throws IOException, InterruptedException {
+        String etag = get("http://localhost:8080/messages", null).headers().firstValue("ETag").orElseThrow();
+        HttpResponse<String> response = get("http://localhost:8080/messages", etag);
+        int status = response.statusCode();
+        Assertions.assertEquals(304, status, "Expected Status Code 304 - Actual Code was: " + status);
+        Assertions.assertTrue(response.body().isEmpty());
+    }
+
+    /**
+     * Sending GET localhost:8080/accounts/9999/messages, creating a message for account 9999, then sending
+     * the GET again with the ETag from the first.
+     *
+     * Expected Response:
+     *  Status Code: 200 with a new ETag. Account 9998's list is unaffected and still 304.
+     */
+    @Test
+    public void getMessagesFromUserChangedAfterCreate() throws IOException, InterruptedException {
+        String etag = get("http://localhost:8080/accounts/9999/messages", null).headers().firstValue("ETag").orElseThrow();
+        String otherEtag = get("http://localhost:8080/accounts/9998/messages", null).headers().firstValue("ETag").orElseThrow();
+
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"postedBy\":9999,\"messageText\": \"hello message\",\"timePostedEpoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> response = get("http://localhost:8080/accounts/9999/messages", etag);
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertNotEquals(etag, response.headers().firstValue("ETag").orElseThrow());
+
+        response = get("http://localhost:8080/accounts/9998/messages", otherEtag);
+        Assertions.assertEquals(304, response.statusCode());
+    }
+
+    /**
+     * Sending GET localhost:8080/messages/9999, updating it, then sending the GET again with the old ETag.
+     *
+     * Expected Response:
+     *  Status Code: 200 (the cached copy is stale)
+     */
+    @Test
+    public void getMessageByIdChangedAfterUpdate() throws IOException, InterruptedException {
+        String etag = get("http://localhost:8080/messages/9999", null).headers().firstValue("ETag").orElseThrow();
+        Assertions.assertEquals(304, get("http://localhost:8080/messages/9999", etag).statusCode());
+
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/9999"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"messageText\": \"text changed\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpResponse<String> response = get("http://localhost:8080/messages/9999", etag);
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertTrue(response.body().contains("text changed"));
+    }
+
+    private HttpResponse<String> get(String uri, String ifNoneMatch) throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder().uri(URI.create(uri));
+        if (ifNoneMatch != null) {
+            request.header("If-None-Match", ifNoneMatch);
+        }
+        return webClient.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
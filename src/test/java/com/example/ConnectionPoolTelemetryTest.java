@@ -0,0 +1,104 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.zaxxer.hikari.HikariDataSource;
+
+public class ConnectionPoolTelemetryTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app with a small connection pool, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {"--app.datasource.pool-size=4", "--app.datasource.min-idle=2"};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Reading messages a few times, then asking for the pool telemetry.
+     *
+     * Expected Result:
+     *  The telemetry reflects the configured pool size, counts the connection acquires and holds
+     *  their wait times in the histogram, times the connection uses, and recommends a pool size.
+     *  The data source is still the Hikari pool itself.
+     */
+    @Test
+    public void poolTelemetryRecordsAcquires() throws IOException, InterruptedException {
+        for (int i = 0; i < 5; i++) {
+            HttpRequest getRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/accounts/9999/messages"))
+                    .build();
+            Assertions.assertEquals(200, webClient.send(getRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+        }
+
+        HttpRequest statsRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/db-pool"))
+                .build();
+        HttpResponse<String> response = webClient.send(statsRequest, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+
+        Map<?, ?> stats = objectMapper.readValue(response.body(), Map.class);
+        Assertions.assertEquals(4, stats.get("maxConnections"));
+        long acquires = ((Number) stats.get("acquireCount")).longValue();
+        Assertions.assertTrue(acquires >= 5, "expected at least 5 acquires, got " + acquires);
+        long histogramTotal = 0;
+        for (Object count : ((Map<?, ?>) stats.get("acquireHistogram")).values()) {
+            histogramTotal += ((Number) count).longValue();
+        }
+        Assertions.assertEquals(acquires, histogramTotal);
+        Assertions.assertTrue(((Number) stats.get("recommendedMaxConnections")).intValue() >= 2);
+        // the sub-millisecond uses are timed without wrapping the data source
+        Assertions.assertTrue(((Number) stats.get("averageDemandedConnections")).doubleValue() > 0);
+        Assertions.assertTrue(app.getBean(DataSource.class) instanceof HikariDataSource);
+    }
+
+    /**
+     * Recording 20 seconds of 2000 half millisecond connection uses per second into a 10 second window.
+     *
+     * Expected Result:
+     *  On average one connection was in demand over the last 10 seconds: sub-millisecond uses
+     *  aren't rounded away, and older seconds have left the window.
+     */
+    @Test
+    public void demandIsAveragedOverSlidingWindow() {
+        ConnectionPoolTelemetry telemetry = new ConnectionPoolTelemetry(10);
+        long start = System.nanoTime();
+        for (int second = 0; second < 20; second++) {
+            long weight = second < 10 ? 5 : 1;
+            for (int i = 0; i < 2000; i++) {
+                telemetry.recordDemand(weight * 500_000L, start + second * 1_000_000_000L + i * 1000L);
+            }
+        }
+        Assertions.assertEquals(1.0, telemetry.averageDemand(start + 19_500_000_000L), 0.01);
+    }
+}
@@ -0,0 +1,44 @@
+package com.example;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+public class FastStartProfileTest {
+	ConfigurableApplicationContext app;
+
+    /**
+     * Before every test, reset the database and restart the app with the faststart profile.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        String[] args = new String[] {"--spring.profiles.active=faststart"};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Booting with lazy initialization and no requests.
+     *
+     * Expected Result:
+     *  The beans with scheduled background jobs have been created anyway, so their jobs run
+     *  (the purger isn't needed by anything else); a bean that is only needed by requests, like the controller, has not.
+     */
+    @Test
+    public void scheduledBeansAreCreatedAtStartup() {
+        Assertions.assertTrue(app.getBeanFactory().containsSingleton("deletedMessagePurger"));
+        Assertions.assertTrue(app.getBeanFactory().containsSingleton("messageOutbox"));
+        Assertions.assertTrue(app.getBeanFactory().containsSingleton("messageEventLog"));
+        Assertions.assertFalse(app.getBeanFactory().containsSingleton("socialMediaController"));
+    }
+}
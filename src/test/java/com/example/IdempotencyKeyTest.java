@@ -0,0 +1,132 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class IdempotencyKeyTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending POST localhost:8080/messages several times concurrently with the same Idempotency-Key
+     *
+     * Expected Response:
+     *  Every response is 200 with the same message, and only one message was persisted.
+     */
+    @Test
+    public void createMessageRetriedWithSameKey() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"postedBy\":9999,\"messageText\": \"only once\",\"timePostedEpoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .header("Idempotency-Key", "3f6c1d0e-key")
+                    .build();
+            responses.add(webClient.sendAsync(postMessageRequest, HttpResponse.BodyHandlers.ofString()));
+        }
+        Message first = null;
+        for (CompletableFuture<HttpResponse<String>> response : responses) {
+            Assertions.assertEquals(200, response.get().statusCode());
+            Message msg = objectMapper.readValue(response.get().body(), Message.class);
+            if (first == null) {
+                first = msg;
+            }
+            Assertions.assertEquals(first, msg);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/9999/messages"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assertions.assertEquals(2, actualResult.size());
+    }
+
+    /**
+     * Sending POST localhost:8080/register twice with different Idempotency-Keys and the same username
+     *
+     * Expected Response:
+     *  The first is 200, the second is a genuine new request and gets 409.
+     */
+    @Test
+    public void registerWithDifferentKeys() throws IOException, InterruptedException {
+        Assertions.assertEquals(200, register("key-1").statusCode());
+        Assertions.assertEquals(200, register("key-1").statusCode());
+        Assertions.assertEquals(409, register("key-2").statusCode());
+    }
+
+    /**
+     * Sending POST localhost:8080/register, then again with the same Idempotency-Key but another username
+     *
+     * Expected Response:
+     *  The first is 200, the second reuses the key for a different request and gets 422; nothing is registered for it.
+     */
+    @Test
+    public void sameKeyWithDifferentBodyIsRejected() throws IOException, InterruptedException {
+        Assertions.assertEquals(200, register("key-1").statusCode());
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"otheruser\",\"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", "key-1")
+                .build();
+        HttpResponse<String> response = webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(422, response.statusCode());
+
+        HttpRequest loginRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"otheruser\",\"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assertions.assertEquals(401, webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> register(String key) throws IOException, InterruptedException {
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"idempotentuser\",\"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .header("Idempotency-Key", key)
+                .build();
+        return webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString());
+    }
+}
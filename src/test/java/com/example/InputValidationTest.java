@@ -0,0 +1,117 @@
+package com.example;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.service.InputValidator;
+
+public class InputValidationTest {
+	ApplicationContext app;
+    HttpClient webClient;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending invalid bodies to POST /messages, PATCH /messages/9999, POST /register and POST /login:
+     * whitespace only text, a lone surrogate, a control character, a null password.
+     *
+     * Expected Response:
+     *  Status Code: 400 (401 for login), and not a single database connection is taken.
+     */
+    @Test
+    public void invalidBodiesAreRejectedWithoutTouchingTheDatabase() throws IOException, InterruptedException {
+        ConnectionPoolTelemetry telemetry = app.getBean(ConnectionPoolTelemetry.class);
+        long acquiresBefore = ((Number) telemetry.snapshot().get("acquireCount")).longValue();
+
+        Assertions.assertEquals(400, send("POST", "/messages", "{\"postedBy\":9999,\"messageText\": \"  \\t \",\"timePostedEpoch\": 1669947792}"));
+        Assertions.assertEquals(400, send("POST", "/messages", "{\"postedBy\":9999,\"messageText\": \"broken \\ud83d\",\"timePostedEpoch\": 1669947792}"));
+        Assertions.assertEquals(400, send("PATCH", "/messages/9999", "{\"messageText\": \"bell \\u0007\"}"));
+        Assertions.assertEquals(400, send("POST", "/register", "{\"username\":\"user\"}"));
+        Assertions.assertEquals(400, send("POST", "/register", "{\"username\":\"two\\nlines\",\"password\":\"password\"}"));
+        Assertions.assertEquals(401, send("POST", "/login", "{\"username\":\"\",\"password\":\"password\"}"));
+
+        Assertions.assertEquals(acquiresBefore, ((Number) telemetry.snapshot().get("acquireCount")).longValue());
+    }
+
+    /**
+     * Text at the limits: 255 chars, an emoji (a surrogate pair) and line breaks are accepted,
+     * 256 chars are not.
+     */
+    @Test
+    public void textAtTheLimitsIsAccepted() {
+        InputValidator validator = app.getBean(InputValidator.class);
+        Assertions.assertTrue(validator.isValidMessageText("x".repeat(255)));
+        Assertions.assertFalse(validator.isValidMessageText("x".repeat(256)));
+        Assertions.assertTrue(validator.isValidMessageText("hi \ud83d\ude00\nsecond line"));
+        Assertions.assertFalse(validator.isValidMessageText("\ude00 backwards \ud83d"));
+        Assertions.assertTrue(validator.isValidPassword("    "));
+        Assertions.assertFalse(validator.isValidPassword("abc"));
+        Assertions.assertFalse(validator.isValidUsername("\u00a0\u2003"));
+    }
+
+    /**
+     * Stands in for an allocation benchmark: validating valid input many times over must not
+     * allocate, measured with the JVM's per-thread allocation counter.
+     */
+    @Test
+    public void acceptPathDoesNotAllocate() {
+        InputValidator validator = app.getBean(InputValidator.class);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        String text = "A perfectly ordinary message with an emoji \ud83d\ude00 and a\nline break";
+
+        boolean allValid = true;
+        // warm up so the measured loop runs compiled code
+        for (int i = 0; i < 100_000; i++) {
+            allValid &= validator.isValidMessageText(text) && validator.isValidCredentials("testuser1", "password");
+        }
+        int iterations = 500_000;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < iterations; i++) {
+            allValid &= validator.isValidMessageText(text) && validator.isValidCredentials("testuser1", "password");
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        Assertions.assertTrue(allValid);
+        // less than a byte per call, where even one small object per call would be 16 bytes or more;
+        // what little there is comes from the JIT and the counter itself
+        Assertions.assertTrue(allocated < iterations, "Allocated " + allocated + " bytes");
+    }
+
+    private int send(String method, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .method(method, HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+    }
+}
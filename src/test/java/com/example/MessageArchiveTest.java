@@ -0,0 +1,143 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.example.repository.MessageRepository;
+import com.example.service.MessageArchive;
+import com.example.service.MessageService;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MessageArchiveTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app with archiving enabled in a fresh directory
+     * (compacting as soon as there is more than one segment), and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException, IOException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        Path archiveDir = Files.createTempDirectory("message-archive");
+        String[] args = new String[] {"--app.archive.enabled=true", "--app.archive.dir=" + archiveDir,
+                "--app.archive.initial-delay-ms=3600000", "--app.archive.max-segments=1"};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Archiving the (old) seeded messages, then sending GET localhost:8080/messages/9999 and
+     * GET localhost:8080/accounts/9999/messages
+     *
+     * Expected Response:
+     *  The message table no longer holds the seeded messages, but both endpoints still return them.
+     */
+    @Test
+    public void archivedMessagesStillReadable() throws IOException, InterruptedException {
+        // puts the account's messages in the query cache, which must not serve them from the table afterwards
+        get("http://localhost:8080/accounts/9999/messages");
+        int archived = app.getBean(MessageService.class).archiveOldMessages();
+        Assertions.assertEquals(3, archived);
+        Assertions.assertEquals(0, app.getBean(MessageRepository.class).count());
+
+        Message expectedMsg = new Message(9999, 9999, "test message 1", 1669947792L);
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/9999"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals(expectedMsg, objectMapper.readValue(response.body(), Message.class));
+
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/9999/messages"))
+                .build();
+        response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        List<Message> expectedResult = new ArrayList<Message>();
+        expectedResult.add(expectedMsg);
+        List<Message> actualResult = objectMapper.readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assertions.assertEquals(expectedResult, actualResult);
+    }
+
+    /**
+     * Archiving the seeded messages and rebuilding the indexes, then sending DELETE localhost:8080/messages/9997
+     * with If-Match set to the archived message's ETag,
+     * then creating another old message and archiving again.
+     *
+     * Expected Response:
+     *  Archived messages are found by search after the rebuild. The delete returns 1 and the message is gone
+     *  from GET, the account's messages and search. The second run's segment is compacted with the first into
+     *  one in the background, from which the remaining messages are still readable.
+     */
+    @Test
+    public void archivedMessagesCanBeDeletedAndAreCompacted() throws IOException, InterruptedException {
+        MessageService msgService = app.getBean(MessageService.class);
+        Assertions.assertEquals(3, msgService.archiveOldMessages());
+        msgService.rebuildIndexes();
+        Assertions.assertEquals(3, msgService.searchMessages("message", 0, 10).size());
+
+        String etag = get("http://localhost:8080/messages/9997").headers().firstValue("ETag").orElseThrow();
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/9997"))
+                .DELETE()
+                .header("If-Match", etag)
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals("1", response.body());
+        Assertions.assertEquals("", get("http://localhost:8080/messages/9997").body());
+        Assertions.assertEquals("[]", get("http://localhost:8080/accounts/9997/messages").body());
+        Assertions.assertEquals(2, msgService.searchMessages("message", 0, 10).size());
+
+        request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"postedBy\":9998,\"messageText\": \"old message\",\"timePostedEpoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Message created = objectMapper.readValue(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body(), Message.class);
+        Assertions.assertEquals(1, msgService.archiveOldMessages());
+        // compaction runs in the background
+        MessageArchive archive = app.getBean(MessageArchive.class);
+        for (int i = 0; i < 50 && archive.segmentCount() > 1; i++) {
+            Thread.sleep(100);
+        }
+        Assertions.assertEquals(1, archive.segmentCount());
+
+        Assertions.assertEquals(created, objectMapper.readValue(get("http://localhost:8080/messages/" + created.getMessageId()).body(), Message.class));
+        Assertions.assertEquals(new Message(9999, 9999, "test message 1", 1669947792L),
+                objectMapper.readValue(get("http://localhost:8080/messages/9999").body(), Message.class));
+        Assertions.assertEquals("", get("http://localhost:8080/messages/9997").body());
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,117 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.example.entity.Message;
+import com.example.service.MessageService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MessageCountTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Posting two messages for an account and deleting one, checking GET /accounts/9999/messages/count
+     * and GET /messages/stats along the way, then reconciling the counters.
+     *
+     * Expected Result:
+     *  The counts follow every change, and reconciling finds nothing to correct.
+     */
+    @Test
+    public void countsFollowChanges() throws IOException, InterruptedException {
+        Assertions.assertEquals("1", get("/accounts/9999/messages/count"));
+        Assertions.assertEquals("0", get("/accounts/9998/messages/count"));
+
+        Message first = post("{\"postedBy\":9999,\"messageText\": \"message a\",\"timePostedEpoch\": 1669947792}");
+        post("{\"postedBy\":9999,\"messageText\": \"message b\",\"timePostedEpoch\": 1669947792}");
+        Assertions.assertEquals("3", get("/accounts/9999/messages/count"));
+
+        HttpRequest deleteRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + first.getMessageId()))
+                .DELETE()
+                .build();
+        webClient.send(deleteRequest, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals("2", get("/accounts/9999/messages/count"));
+
+        Map<?, ?> stats = objectMapper.readValue(get("/messages/stats"), Map.class);
+        Assertions.assertEquals(4, stats.get("totalMessages"));
+        Assertions.assertEquals(2, stats.get("created"));
+        Assertions.assertEquals(1, stats.get("deleted"));
+
+        app.getBean(MessageService.class).reconcileCounters();
+        stats = objectMapper.readValue(get("/messages/stats"), Map.class);
+        Assertions.assertEquals(0, stats.get("lastReconcileDrift"));
+        Assertions.assertEquals(4, stats.get("totalMessages"));
+    }
+
+    /**
+     * Inserting a message for account 9998 behind the app's back, then reconciling the counters.
+     *
+     * Expected Result:
+     *  The count misses it until the reconcile finds the drift of 1 and corrects it.
+     */
+    @Test
+    public void reconcileCorrectsMissedChanges() throws IOException, InterruptedException {
+        app.getBean(JdbcTemplate.class).update(
+                "insert into message (postedBy, messageText, timePostedEpoch) values (9998, 'behind the back', 1669947792)");
+        Assertions.assertEquals("0", get("/accounts/9998/messages/count"));
+
+        app.getBean(MessageService.class).reconcileCounters();
+        Map<?, ?> stats = objectMapper.readValue(get("/messages/stats"), Map.class);
+        Assertions.assertEquals(1, stats.get("lastReconcileDrift"));
+        Assertions.assertEquals(4, stats.get("totalMessages"));
+        Assertions.assertEquals("1", get("/accounts/9998/messages/count"));
+    }
+
+    private String get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+        return response.body();
+    }
+
+    private Message post(String json) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .build();
+        return objectMapper.readValue(webClient.send(request, HttpResponse.BodyHandlers.ofString()).body(), Message.class);
+    }
+}
@@ -0,0 +1,113 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.example.service.MessageEvent;
+import com.example.service.MessageEventLog;
+
+public class MessageEventLogTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    Path logDir;
+
+    /**
+     * Before every test, reset the database, restart the app with the event log enabled in a fresh
+     * directory, and create a new webClient for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException, IOException {
+        webClient = HttpClient.newHttpClient();
+        logDir = Files.createTempDirectory("message-event-log");
+        String[] args = new String[] {"--app.event-log.enabled=true", "--app.event-log.dir=" + logDir};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Updating message 9999, deleting message 9997, taking a snapshot and then creating a new message.
+     *
+     * Expected Result:
+     *  Restoring from the snapshot plus the log tail gives the same messages as the database, and only
+     *  the event logged after the snapshot is left to replay.
+     */
+    @Test
+    public void restoreFromSnapshotAndTail() throws IOException, InterruptedException {
+        send("PATCH", "http://localhost:8080/messages/9999", "{\"messageText\": \"text changed\"}");
+        send("DELETE", "http://localhost:8080/messages/9997", null);
+        MessageEventLog eventLog = app.getBean(MessageEventLog.class);
+        eventLog.snapshot();
+        send("POST", "http://localhost:8080/messages", "{\"postedBy\":9998,\"messageText\": \"after snapshot\",\"timePostedEpoch\": 1669947792}");
+
+        Map<Integer, Message> restored = eventLog.restore();
+        Assertions.assertEquals(3, restored.size());
+        Assertions.assertEquals("text changed", restored.get(9999).getMessageText());
+        Assertions.assertFalse(restored.containsKey(9997));
+        Assertions.assertEquals(new Message(9996, 9996, "test message 3", 1669947792L), restored.get(9996));
+
+        List<MessageEvent> tail = new ArrayList<>();
+        eventLog.replay(0, (seq, event) -> tail.add(event));
+        Assertions.assertEquals(1, tail.size());
+        Assertions.assertEquals(MessageEvent.Type.CREATED, tail.get(0).getType());
+        Assertions.assertEquals("after snapshot", tail.get(0).getMessage().getMessageText());
+    }
+
+    /**
+     * Updating message 9999, then restarting the app on the same log directory. The database is re-created
+     * on startup, so message 9999 is back to its original text.
+     *
+     * Expected Result:
+     *  The log is found not to match the database and starts over from a snapshot of it: restoring gives
+     *  the database's messages, and sequence numbers carry on after the ones logged before the restart.
+     */
+    @Test
+    public void logStartsOverWhenDatabaseDiffers() throws IOException, InterruptedException {
+        send("PATCH", "http://localhost:8080/messages/9999", "{\"messageText\": \"text changed\"}");
+        SpringApplication.exit(app);
+        app = SpringApplication.run(SocialMediaApp.class, "--app.event-log.enabled=true", "--app.event-log.dir=" + logDir);
+        Thread.sleep(500);
+
+        MessageEventLog eventLog = app.getBean(MessageEventLog.class);
+        Map<Integer, Message> restored = eventLog.restore();
+        Assertions.assertEquals(3, restored.size());
+        Assertions.assertEquals(new Message(9999, 9999, "test message 1", 1669947792L), restored.get(9999));
+
+        send("DELETE", "http://localhost:8080/messages/9997", null);
+        List<Long> seqs = new ArrayList<>();
+        eventLog.replay(0, (seq, event) -> seqs.add(seq));
+        Assertions.assertEquals(List.of(2L), seqs);
+    }
+
+    private void send(String method, String uri, String json) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+    }
+}
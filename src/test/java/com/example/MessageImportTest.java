@@ -0,0 +1,186 @@
+package com.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Account;
+import com.example.service.AccountService;
+import com.example.service.InputValidator;
+import com.example.service.MessageImporter;
+import com.example.service.MessageService;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MessageImportTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app with small import chunks, and create a
+     * new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {"--app.import.chunk-size=100"};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Streaming 1050 messages to POST localhost:8080/messages/import, where every 100th has blank
+     * text and every 250th (from the second one on) is posted by an account that doesn't exist.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: 1034 imported, the 16 refused ones reported by position
+     *  The imported messages are counted for their account.
+     */
+    @Test
+    public void importSkipsAndReportsInvalidMessages() throws IOException, InterruptedException {
+        int total = 1050;
+        HttpResponse<String> response = importMessages(() -> generate(total, "]"));
+        Assertions.assertEquals(200, response.statusCode(), response.body());
+
+        JsonNode body = objectMapper.readTree(response.body());
+        Assertions.assertEquals(1034, body.get("imported").asLong());
+        Assertions.assertEquals(16, body.get("rejected").asLong());
+        Assertions.assertEquals(0, body.get("rejectedPositions").get(0).asLong());
+        Assertions.assertTrue(body.get("error").isNull());
+
+        HttpRequest count = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/9998/messages/count"))
+                .build();
+        Assertions.assertEquals("1034", webClient.send(count, HttpResponse.BodyHandlers.ofString()).body());
+    }
+
+    /**
+     * Streaming 150 messages followed by broken JSON.
+     *
+     * Expected Response:
+     *  Status Code: 400 with the error, and the messages read before the break are imported.
+     */
+    @Test
+    public void brokenBodyKeepsWhatWasReadBefore() throws IOException, InterruptedException {
+        HttpResponse<String> response = importMessages(() -> generate(150, ",{\"postedBy\": 9998, \"messageText\": "));
+        Assertions.assertEquals(400, response.statusCode());
+
+        JsonNode body = objectMapper.readTree(response.body());
+        Assertions.assertEquals(147, body.get("imported").asLong());
+        Assertions.assertEquals(3, body.get("rejected").asLong());
+        Assertions.assertFalse(body.get("error").isNull());
+    }
+
+    /**
+     * Importing 300 messages where, from the second chunk on, the poster 12345 passes the check
+     * (as if it were deleted between the check and the insert), so the chunk with it hits the foreign key.
+     *
+     * Expected Result:
+     *  The import stops at that chunk and reports the error with what was saved before it, instead of failing outright.
+     */
+    @Test
+    public void refusedChunkKeepsWhatWasSavedBefore() throws IOException {
+        AtomicInteger checks = new AtomicInteger();
+        AccountService accService = app.getBean(AccountService.class);
+        AccountService staleAccService = new AccountService(null, null, null) {
+            @Override
+            public List<Account> getAccountsByIds(List<Integer> accIds) {
+                List<Account> found = new ArrayList<>(accService.getAccountsByIds(accIds));
+                if (checks.getAndIncrement() > 0 && accIds.contains(12345)) {
+                    found.add(new Account(12345, "deleted", "password"));
+                }
+                return found;
+            }
+        };
+        MessageImporter importer = new MessageImporter(app.getBean(ObjectMapper.class), app.getBean(MessageService.class),
+                staleAccService, app.getBean(InputValidator.class), 100);
+
+        MessageImporter.Result result = importer.importFrom(generate(300, "]"));
+        Assertions.assertEquals(197, result.getImported());
+        Assertions.assertNotNull(result.getError());
+        Assertions.assertTrue(result.getError().contains("positions 200 to 299"), result.getError());
+    }
+
+    /**
+     * Sending a single message object instead of an array.
+     *
+     * Expected Response:
+     *  Status Code: 400, nothing imported.
+     */
+    @Test
+    public void bodyMustBeAnArray() throws IOException, InterruptedException {
+        String msg = "{\"postedBy\": 9998, \"messageText\": \"not in an array\", \"timePostedEpoch\": 1669947792}";
+        HttpResponse<String> response = importMessages(() -> new ByteArrayInputStream(msg.getBytes(StandardCharsets.UTF_8)));
+        Assertions.assertEquals(400, response.statusCode());
+        Assertions.assertEquals(0, objectMapper.readTree(response.body()).get("imported").asLong());
+    }
+
+    private HttpResponse<String> importMessages(Supplier<InputStream> body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/import"))
+                .POST(HttpRequest.BodyPublishers.ofInputStream(body))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Generates the body lazily, one message at a time, so the client doesn't hold it in memory either.
+     */
+    private static InputStream generate(int count, String ending) {
+        Enumeration<InputStream> parts = new Enumeration<>() {
+            int next = -1;
+
+            @Override
+            public boolean hasMoreElements() {
+                return next <= count;
+            }
+
+            @Override
+            public InputStream nextElement() {
+                String part;
+                if (next == -1) {
+                    part = "[";
+                } else if (next == count) {
+                    part = ending;
+                } else {
+                    String text = next % 100 == 0 ? " " : "imported message " + next;
+                    int postedBy = next % 250 == 1 ? 12345 : 9998;
+                    part = (next == 0 ? "" : ",") + "{\"postedBy\": " + postedBy + ", \"messageText\": \"" + text
+                            + "\", \"timePostedEpoch\": 1669947792}";
+                }
+                next++;
+                return new ByteArrayInputStream(part.getBytes(StandardCharsets.UTF_8));
+            }
+        };
+        return new SequenceInputStream(parts);
+    }
+}
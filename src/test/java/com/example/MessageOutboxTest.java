@@ -0,0 +1,121 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.example.entity.OutboxEvent;
+import com.example.repository.OutboxEventRepository;
+import com.example.service.InMemoryOutboxSink;
+import com.example.service.MessageOutbox;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MessageOutboxTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app with the outbox enabled (and the background
+     * relay effectively paused), and create a new webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {"--app.outbox.enabled=true", "--app.outbox.relay-interval-ms=3600000"};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Creating, updating and deleting messages, then running the relay.
+     *
+     * Expected Result:
+     *  Each change is in the outbox until the relay runs, then delivered to the sink in order, and the
+     *  failed update of a missing message produced no event.
+     */
+    @Test
+    public void relayDeliversChangesInOrder() throws IOException, InterruptedException {
+        send("POST", "http://localhost:8080/messages", "{\"postedBy\":9998,\"messageText\": \"new message\",\"timePostedEpoch\": 1669947792}");
+        send("PATCH", "http://localhost:8080/messages/9999", "{\"messageText\": \"text changed\"}");
+        send("PATCH", "http://localhost:8080/messages/5050", "{\"messageText\": \"not found\"}");
+        send("DELETE", "http://localhost:8080/messages/9997", null);
+
+        MessageOutbox outbox = app.getBean(MessageOutbox.class);
+        Assertions.assertEquals(3, outbox.getPendingCount());
+        Assertions.assertEquals(3, outbox.relay());
+        Assertions.assertEquals(0, app.getBean(OutboxEventRepository.class).count());
+        Assertions.assertEquals(3, outbox.getDeliveredCount());
+
+        List<OutboxEvent> delivered = new ArrayList<>(app.getBean(InMemoryOutboxSink.class).getQueue());
+        Assertions.assertEquals("CREATED", delivered.get(0).getEventType());
+        Assertions.assertEquals("UPDATED", delivered.get(1).getEventType());
+        Assertions.assertEquals("text changed", objectMapper.readValue(delivered.get(1).getPayload(), Message.class).getMessageText());
+        Assertions.assertEquals("DELETED", delivered.get(2).getEventType());
+        Assertions.assertEquals(9997, delivered.get(2).getMessageId());
+    }
+
+    /**
+     * Restarting with room for only 100 events in the in-memory queue, importing 101 messages and running the relay.
+     *
+     * Expected Result:
+     *  The first batch of 100 is delivered. The last event doesn't fit in the full queue, so it stays
+     *  in the outbox, as /admin/outbox reports, until a consumer takes events off the queue.
+     */
+    @Test
+    public void fullQueueKeepsEventsInOutbox() throws IOException, InterruptedException {
+        SpringApplication.exit(app);
+        app = SpringApplication.run(SocialMediaApp.class, "--app.outbox.enabled=true",
+                "--app.outbox.relay-interval-ms=3600000", "--app.outbox.memory.capacity=100");
+        Thread.sleep(500);
+        StringBuilder msgs = new StringBuilder("[");
+        for (int i = 0; i < 101; i++) {
+            msgs.append(i == 0 ? "" : ",").append("{\"postedBy\":9998,\"messageText\":\"message ").append(i)
+                .append("\",\"timePostedEpoch\":1669947792}");
+        }
+        send("POST", "http://localhost:8080/messages/import", msgs.append("]").toString());
+
+        MessageOutbox outbox = app.getBean(MessageOutbox.class);
+        Assertions.assertEquals(100, outbox.relay());
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/outbox"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals(1, objectMapper.readTree(response.body()).get("pending").asLong());
+        Assertions.assertEquals(100, objectMapper.readTree(response.body()).get("delivered").asLong());
+
+        app.getBean(InMemoryOutboxSink.class).getQueue().clear();
+        Assertions.assertEquals(1, outbox.relay());
+        Assertions.assertEquals(0, outbox.getPendingCount());
+    }
+
+    private void send(String method, String uri, String json) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,122 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.example.entity.Message;
+import com.example.service.MessageSearchIndex;
+
+public class MessageSearchIndexTest {
+
+    /**
+     * Indexing 2000 messages made of a few common words, then reading every page of two searches.
+     *
+     * Expected Result:
+     *  The pages follow the full ranking (tf-idf summed over the query terms, ties to the highest ID),
+     *  and there is nothing past its end.
+     */
+    @Test
+    public void pagesFollowFullRanking() {
+        String[] words = {"alpha", "beta", "gamma", "delta", "epsilon"};
+        Random random = new Random(42);
+        List<Message> msgs = new ArrayList<>();
+        for (int id = 1; id <= 2000; id++) {
+            StringBuilder text = new StringBuilder();
+            for (int i = random.nextInt(4); i >= 0; i--) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            msgs.add(new Message(id, 9999, text.toString(), 1669947792L));
+        }
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.rebuild(msgs);
+
+        for (String query : new String[] {"alpha", "beta gamma"}) {
+            List<Integer> expected = rank(msgs, query);
+            List<Integer> paged = new ArrayList<>();
+            for (int page = 0; ; page++) {
+                List<Integer> ids = index.search(query, page, 37);
+                if (ids.isEmpty()) {
+                    break;
+                }
+                paged.addAll(ids);
+            }
+            Assertions.assertEquals(expected, paged, query);
+        }
+    }
+
+    /**
+     * Beginning a rebuild, then indexing a new message, updating one and removing another while the
+     * messages to rebuild from are "loaded", and rebuilding from a load that saw none of the changes.
+     *
+     * Expected Result:
+     *  All three changes are replayed onto the rebuilt index.
+     */
+    @Test
+    public void changesDuringRebuildAreKept() {
+        List<Message> loaded = new ArrayList<>();
+        loaded.add(new Message(1, 9999, "alpha", 1669947792L));
+        loaded.add(new Message(2, 9999, "alpha beta", 1669947792L));
+        MessageSearchIndex index = new MessageSearchIndex();
+        index.rebuild(loaded);
+
+        index.beginRebuild();
+        index.index(new Message(3, 9999, "gamma", 1669947792L));
+        index.index(new Message(2, 9999, "delta", 1669947792L));
+        index.remove(1);
+        index.rebuild(loaded);
+
+        Assertions.assertEquals(List.of(), index.search("alpha", 0, 10));
+        Assertions.assertEquals(List.of(3), index.search("gamma", 0, 10));
+        Assertions.assertEquals(List.of(2), index.search("delta", 0, 10));
+    }
+
+    /**
+     * Ranks every message for the query by brute force.
+     */
+    private static List<Integer> rank(List<Message> msgs, String query) {
+        String[] terms = query.split(" ");
+        Map<String, Integer> docFreqs = new HashMap<>();
+        for (String term : terms) {
+            int docs = 0;
+            for (Message msg : msgs) {
+                if (count(msg.getMessageText(), term) > 0) {
+                    docs++;
+                }
+            }
+            docFreqs.put(term, docs);
+        }
+        Map<Integer, Double> scores = new HashMap<>();
+        for (Message msg : msgs) {
+            double score = 0;
+            for (String term : terms) {
+                int freq = count(msg.getMessageText(), term);
+                if (freq > 0) {
+                    score += freq * Math.log(1.0 + (double) msgs.size() / docFreqs.get(term));
+                }
+            }
+            if (score > 0) {
+                scores.put(msg.getMessageId(), score);
+            }
+        }
+        List<Integer> ranked = new ArrayList<>(scores.keySet());
+        ranked.sort(Comparator.comparing((Integer id) -> scores.get(id)).thenComparing(id -> id).reversed());
+        return ranked;
+    }
+
+    private static int count(String text, String term) {
+        int count = 0;
+        for (String word : text.split(" ")) {
+            if (word.equals(term)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
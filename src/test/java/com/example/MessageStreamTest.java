@@ -0,0 +1,89 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MessageStreamTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Subscribing to GET localhost:8080/messages/stream?postedBy=9999, then creating a message for another
+     * account followed by one for account 9999.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  The stream only delivers the "created" event for account 9999's message.
+     */
+    @Test
+    public void streamDeliversFilteredCreatedEvent() throws Exception {
+        HttpRequest streamRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/stream?postedBy=9999"))
+                .header("Accept", "text/event-stream")
+                .build();
+        HttpResponse<Stream<String>> streamResponse = webClient
+                .sendAsync(streamRequest, HttpResponse.BodyHandlers.ofLines())
+                .get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(200, streamResponse.statusCode());
+
+        postMessage("{\"postedBy\":9998,\"messageText\": \"not for this stream\",\"timePostedEpoch\": 1669947792}");
+        postMessage("{\"postedBy\":9999,\"messageText\": \"hello stream\",\"timePostedEpoch\": 1669947792}");
+
+        Iterator<String> lines = streamResponse.body()
+                .filter(line -> !line.isEmpty() && !line.startsWith(":"))
+                .iterator();
+        Assertions.assertEquals("event:created", lines.next());
+        String data = lines.next();
+        Assertions.assertTrue(data.startsWith("data:"), "Expected a data line but was: " + data);
+        Message streamedMsg = objectMapper.readValue(data.substring("data:".length()), Message.class);
+        Assertions.assertEquals(9999, streamedMsg.getPostedBy());
+        Assertions.assertEquals("hello stream", streamedMsg.getMessageText());
+    }
+
+    private void postMessage(String json) throws IOException, InterruptedException {
+        HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+    }
+}
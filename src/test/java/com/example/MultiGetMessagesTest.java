@@ -0,0 +1,115 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class MultiGetMessagesTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/multi-get with IDs that exist, don't exist
+     * and are repeated.
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: the found messages in request order, and the missing ID
+     */
+    @Test
+    public void multiGetPreservesOrderAndReportsMissing() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/multi-get"))
+                .POST(HttpRequest.BodyPublishers.ofString("[9999, 5, 9996, 9999]"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+
+        JsonNode body = objectMapper.readTree(response.body());
+        List<Integer> foundIds = new ArrayList<>();
+        for (JsonNode msg : body.get("messages")) {
+            foundIds.add(objectMapper.treeToValue(msg, Message.class).getMessageId());
+        }
+        Assertions.assertEquals(List.of(9999, 9996, 9999), foundIds);
+        Assertions.assertEquals("[5]", body.get("missing").toString());
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages?ids=9997,9999
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: both messages in the requested order, nothing missing
+     */
+    @Test
+    public void getWithIds() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages?ids=9997,9999"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, response.statusCode());
+
+        JsonNode body = objectMapper.readTree(response.body());
+        Assertions.assertEquals(9997, body.get("messages").get(0).get("messageId").asInt());
+        Assertions.assertEquals(9999, body.get("messages").get(1).get("messageId").asInt());
+        Assertions.assertEquals(0, body.get("missing").size());
+    }
+
+    /**
+     * Sending an http request to POST localhost:8080/messages/multi-get with more than 100 IDs.
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void tooManyIdsIsRejected() throws IOException, InterruptedException {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            ids.add(i);
+        }
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/multi-get"))
+                .POST(HttpRequest.BodyPublishers.ofString(objectMapper.writeValueAsString(ids)))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(400, response.statusCode());
+    }
+}
@@ -0,0 +1,126 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.example.service.OffHeapMessageCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class OffHeapMessageCacheTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app with a two entry off-heap cache, and create a new
+     * webClient and ObjectMapper for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {"--app.offheap-cache.enabled=true", "--app.offheap-cache.max-entries=2"};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Reading three messages through a cache that holds two, then reading them all again.
+     *
+     * Expected Result:
+     *  One message was evicted to make room, the repeated reads of cached messages were hits, and every
+     *  read returned the right message.
+     */
+    @Test
+    public void cacheEvictsWhenFull() throws IOException, InterruptedException {
+        Assertions.assertEquals("test message 1", getMessage(9999).getMessageText());
+        Assertions.assertEquals("test message 2", getMessage(9997).getMessageText());
+        Assertions.assertEquals("test message 1", getMessage(9999).getMessageText());
+        Assertions.assertEquals("test message 3", getMessage(9996).getMessageText());
+        Assertions.assertEquals("test message 2", getMessage(9997).getMessageText());
+        Assertions.assertEquals("test message 1", getMessage(9999).getMessageText());
+        Assertions.assertEquals("test message 3", getMessage(9996).getMessageText());
+
+        Map<String, Object> stats = app.getBean(OffHeapMessageCache.class).getStats();
+        Assertions.assertEquals(2, stats.get("entries"));
+        Assertions.assertTrue((Long) stats.get("evictions") >= 1);
+        Assertions.assertTrue((Long) stats.get("hits") >= 2);
+    }
+
+    /**
+     * Reading a message so it is cached, updating it, reading it, deleting it, and reading it again.
+     *
+     * Expected Result:
+     *  Reads never return the cached copy of a changed or deleted message.
+     */
+    @Test
+    public void changesInvalidateCachedMessage() throws IOException, InterruptedException {
+        Assertions.assertEquals("test message 1", getMessage(9999).getMessageText());
+        Assertions.assertEquals("test message 1", getMessage(9999).getMessageText());
+
+        Assertions.assertEquals(200, send("PATCH", "http://localhost:8080/messages/9999", "{\"messageText\": \"text changed\"}"));
+        Assertions.assertEquals("text changed", getMessage(9999).getMessageText());
+        Assertions.assertEquals("text changed", getMessage(9999).getMessageText());
+
+        Assertions.assertEquals(200, send("DELETE", "http://localhost:8080/messages/9999", null));
+        Assertions.assertNull(getMessage(9999));
+    }
+
+    /**
+     * Loading message 9999 while message 9997 is invalidated, then loading it again while it is invalidated itself.
+     *
+     * Expected Result:
+     *  Only the invalidation of 9999 itself keeps its load out of the cache.
+     */
+    @Test
+    public void onlyOwnInvalidationCancelsPut() {
+        OffHeapMessageCache cache = app.getBean(OffHeapMessageCache.class);
+        Message msg = new Message(9999, 9999, "test message 1", 1669947792L);
+
+        long generation = cache.getGeneration(9999);
+        cache.invalidate(9997);
+        cache.put(msg, generation);
+        Assertions.assertEquals(msg, cache.get(9999));
+
+        generation = cache.getGeneration(9999);
+        cache.invalidate(9999);
+        cache.put(msg, generation);
+        Assertions.assertNull(cache.get(9999));
+    }
+
+    private Message getMessage(int messageId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .build();
+        String body = webClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        return body.isEmpty() ? null : objectMapper.readValue(body, Message.class);
+    }
+
+    private int send(String method, String uri, String json) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+    }
+}
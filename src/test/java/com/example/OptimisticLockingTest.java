@@ -0,0 +1,156 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class OptimisticLockingTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Many clients concurrently read a counter message and PATCH it to the next number with If-Match,
+     * retrying whenever the precondition fails.
+     *
+     * Expected Response:
+     *  No increment is lost: the final text and version are the number of PATCHes that got status 200.
+     *  Of the first PATCHes, all made against the same version, only one got through; the rest got 412.
+     */
+    @Test
+    public void concurrentConditionalUpdatesLoseNothing() throws Exception {
+        HttpRequest create = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"postedBy\":9999,\"messageText\": \"0\",\"timePostedEpoch\": 1669947792}"))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> created = webClient.send(create, HttpResponse.BodyHandlers.ofString());
+        Assertions.assertEquals(200, created.statusCode());
+        Integer msgId = objectMapper.readValue(created.body(), Message.class).getMessageId();
+
+        int threads = 8;
+        int incrementsPerThread = 10;
+        AtomicInteger succeeded = new AtomicInteger();
+        AtomicInteger preconditionFailures = new AtomicInteger();
+        // every thread reads the first version before any of them writes, so all but one of the first writes lose
+        CyclicBarrier firstReads = new CyclicBarrier(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(pool.submit(() -> {
+                boolean firstRead = true;
+                for (int done = 0; done < incrementsPerThread; ) {
+                    HttpResponse<String> current = get("http://localhost:8080/messages/" + msgId);
+                    String etag = current.headers().firstValue("ETag").orElseThrow();
+                    int value = Integer.parseInt(objectMapper.readValue(current.body(), Message.class).getMessageText());
+                    if (firstRead) {
+                        firstReads.await(5, TimeUnit.SECONDS);
+                        firstRead = false;
+                    }
+
+                    int status = patch(msgId, "{\"messageText\": \"" + (value + 1) + "\"}", etag).statusCode();
+                    if (status == 200) {
+                        succeeded.incrementAndGet();
+                        done++;
+                    } else {
+                        Assertions.assertEquals(412, status);
+                        preconditionFailures.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        pool.shutdown();
+
+        Message result = objectMapper.readValue(get("http://localhost:8080/messages/" + msgId).body(), Message.class);
+        Assertions.assertEquals(threads * incrementsPerThread, succeeded.get());
+        Assertions.assertEquals(String.valueOf(succeeded.get()), result.getMessageText());
+        Assertions.assertTrue(preconditionFailures.get() >= threads - 1);
+        Assertions.assertTrue(get("http://localhost:8080/messages/" + msgId).headers().firstValue("ETag").orElseThrow()
+                .endsWith("-" + msgId + "-" + succeeded.get() + "\""));
+    }
+
+    /**
+     * Updating message 9999 with If-Match, then updating and deleting it again with the now stale ETag.
+     *
+     * Expected Response:
+     *  The first update gets 200, the stale update and delete get 412 and the message is unchanged.
+     */
+    @Test
+    public void staleIfMatchIsRejected() throws IOException, InterruptedException {
+        String etag = get("http://localhost:8080/messages/9999").headers().firstValue("ETag").orElseThrow();
+        Assertions.assertEquals(200, patch(9999, "{\"messageText\": \"first\"}", etag).statusCode());
+        Assertions.assertEquals(412, patch(9999, "{\"messageText\": \"second\"}", etag).statusCode());
+
+        HttpRequest delete = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/9999"))
+                .DELETE()
+                .header("If-Match", etag)
+                .build();
+        Assertions.assertEquals(412, webClient.send(delete, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpResponse<String> response = get("http://localhost:8080/messages/9999");
+        Assertions.assertEquals("first", objectMapper.readValue(response.body(), Message.class).getMessageText());
+        Assertions.assertNotEquals(etag, response.headers().firstValue("ETag").orElseThrow());
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> patch(Integer msgId, String body, String ifMatch) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + msgId))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString(body))
+                .header("Content-Type", "application/json")
+                .header("If-Match", ifMatch)
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -0,0 +1,118 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+public class RateLimitTest {
+	ApplicationContext app;
+    HttpClient webClient;
+
+    /**
+     * Before every test, reset the database and restart the app with a small burst size and slow
+     * refill rate, and create a new webClient for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        String[] args = new String[] {"--app.rate-limit.burst=3", "--app.rate-limit.permits-per-second=0.5"};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending more POST localhost:8080/login requests than the burst allows
+     *
+     * Expected Response:
+     *  The first 3 requests are processed (401), the 4th gets Status Code 429 with a Retry-After header.
+     *  Other endpoints are unaffected.
+     */
+    @Test
+    public void loginRateLimited() throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(401, login().statusCode());
+        }
+        HttpResponse<String> response = login();
+        int status = response.statusCode();
+        Assertions.assertEquals(429, status, "Expected Status Code 429 - Actual Code was: " + status);
+        Assertions.assertTrue(Long.parseLong(response.headers().firstValue("Retry-After").orElseThrow()) >= 1);
+
+        HttpRequest getRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .build();
+        Assertions.assertEquals(200, webClient.send(getRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    /**
+     * Sending POST localhost:8080/login requests through a proxy (X-Forwarded-For) for two clients
+     *
+     * Expected Response:
+     *  Each client gets its own burst of 3: the first client's 4th request gets 429, the second client's first gets 401.
+     */
+    @Test
+    public void clientsBehindProxyLimitedSeparately() throws IOException, InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            Assertions.assertEquals(401, login("203.0.113.1").statusCode());
+        }
+        Assertions.assertEquals(429, login("203.0.113.1").statusCode());
+        Assertions.assertEquals(401, login("203.0.113.2").statusCode());
+    }
+
+    /**
+     * Registering 3 accounts in one POST localhost:8080/register/batch request, then one more through /register
+     *
+     * Expected Response:
+     *  The batch is processed (200) and uses up the burst of 3, so the /register request gets Status Code 429.
+     */
+    @Test
+    public void batchRegistrationCountsEveryAccount() throws IOException, InterruptedException {
+        String batch = "[{\"username\": \"batchuser1\", \"password\": \"password\"},"
+                + "{\"username\": \"batchuser2\", \"password\": \"password\"},"
+                + "{\"username\": \"batchuser3\", \"password\": \"password\"}]";
+        HttpRequest batchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register/batch"))
+                .POST(HttpRequest.BodyPublishers.ofString(batch))
+                .header("Content-Type", "application/json")
+                .build();
+        Assertions.assertEquals(200, webClient.send(batchRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+
+        HttpRequest registerRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/register"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"batchuser4\",\"password\": \"password\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        Assertions.assertEquals(429, webClient.send(registerRequest, HttpResponse.BodyHandlers.ofString()).statusCode());
+    }
+
+    private HttpResponse<String> login() throws IOException, InterruptedException {
+        return webClient.send(loginRequest().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> login(String forwardedFor) throws IOException, InterruptedException {
+        HttpRequest loginRequest = loginRequest().header("X-Forwarded-For", forwardedFor).build();
+        return webClient.send(loginRequest, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static HttpRequest.Builder loginRequest() {
+        return HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString("{\"username\": \"testuser404\",\"password\": \"password\"}"))
+                .header("Content-Type", "application/json");
+    }
+}
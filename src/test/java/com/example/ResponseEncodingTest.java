@@ -0,0 +1,99 @@
+package com.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+
+public class ResponseEncodingTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/accounts/9999/messages with Accept: application/cbor
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: CBOR representation of the list of messages
+     */
+    @Test
+    public void getAllMessagesFromUserAsCbor() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/9999/messages"))
+                .header("Accept", "application/cbor")
+                .build();
+        HttpResponse<byte[]> response = webClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        int status = response.statusCode();
+        Assertions.assertEquals(200, status, "Expected Status Code 200 - Actual Code was: " + status);
+        Assertions.assertEquals("application/cbor", response.headers().firstValue("Content-Type").orElse(""));
+        List<Message> actualResult = new CBORMapper().readValue(response.body(), new TypeReference<List<Message>>(){});
+        Assertions.assertEquals(List.of(new Message(9999, 9999, "test message 1", 1669947792L)), actualResult);
+    }
+
+    /**
+     * Creating enough messages to push GET localhost:8080/messages over the compression threshold, then
+     * sending the GET with Accept-Encoding: gzip
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: gzip compressed JSON list of all messages
+     */
+    @Test
+    public void getAllMessagesGzipped() throws IOException, InterruptedException {
+        for (int i = 0; i < 30; i++) {
+            HttpRequest postMessageRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"postedBy\":9999,\"messageText\": \"filler message " + i + "\",\"timePostedEpoch\": 1669947792}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            webClient.send(postMessageRequest, HttpResponse.BodyHandlers.ofString());
+        }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages"))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        HttpResponse<InputStream> response = webClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse(""));
+        List<Message> actualResult = objectMapper.readValue(new GZIPInputStream(response.body()), new TypeReference<List<Message>>(){});
+        Assertions.assertEquals(33, actualResult.size());
+    }
+}
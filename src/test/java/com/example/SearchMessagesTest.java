@@ -0,0 +1,112 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SearchMessagesTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search?q=message%202
+     *
+     * Expected Response:
+     *  Status Code: 200
+     *  Response Body: all seeded messages, with "test message 2" ranked first
+     */
+    @Test
+    public void searchMessagesRanked() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?q=message%202"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+        Assertions.assertEquals(200, status, "Expected Status Code 200 - Actual Code was: " + status);
+        List<Message> actualResult = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+        Assertions.assertEquals(3, actualResult.size());
+        Assertions.assertEquals(new Message(9997, 9997, "test message 2", 1669947792L), actualResult.get(0));
+    }
+
+    /**
+     * Sending an http request to PATCH localhost:8080/messages/9999, then searching for the new and old text.
+     *
+     * Expected Response:
+     *  The updated message is found by its new text and no longer by its old text.
+     */
+    @Test
+    public void searchMessagesReflectsUpdate() throws IOException, InterruptedException {
+        HttpRequest patchRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/9999"))
+                .method("PATCH", HttpRequest.BodyPublishers.ofString("{\"messageText\": \"completely different\"}"))
+                .header("Content-Type", "application/json")
+                .build();
+        webClient.send(patchRequest, HttpResponse.BodyHandlers.ofString());
+
+        HttpRequest newTextRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?q=different"))
+                .build();
+        HttpResponse<String> response = webClient.send(newTextRequest, HttpResponse.BodyHandlers.ofString());
+        List<Message> actualResult = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+        Assertions.assertEquals(1, actualResult.size());
+        Assertions.assertEquals(9999, actualResult.get(0).getMessageId());
+
+        HttpRequest oldTextRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?q=1"))
+                .build();
+        response = webClient.send(oldTextRequest, HttpResponse.BodyHandlers.ofString());
+        actualResult = objectMapper.readValue(response.body().toString(), new TypeReference<List<Message>>(){});
+        Assertions.assertTrue(actualResult.isEmpty(), "Expected Empty Result, but Result was not Empty");
+    }
+
+    /**
+     * Sending an http request to GET localhost:8080/messages/search with a blank query
+     *
+     * Expected Response:
+     *  Status Code: 400
+     */
+    @Test
+    public void searchMessagesBlankQuery() throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/search?q=%20"))
+                .build();
+        HttpResponse<String> response = webClient.send(request, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+        Assertions.assertEquals(400, status, "Expected Status Code 400 - Actual Code was: " + status);
+    }
+}
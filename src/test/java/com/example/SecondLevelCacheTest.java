@@ -0,0 +1,128 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SecondLevelCacheTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Reading a message and the account's messages so they are cached, updating the message, then reading again.
+     *
+     * Expected Result:
+     *  Both reads return the updated text, not the cached copy.
+     */
+    @Test
+    public void patchInvalidatesCachedMessage() throws IOException, InterruptedException {
+        Assertions.assertEquals("test message 1", getMessage(9999).getMessageText());
+        Assertions.assertEquals("test message 1", getMessagesFromUser(9999).get(0).getMessageText());
+
+        Assertions.assertEquals(200, send("PATCH", "http://localhost:8080/messages/9999", "{\"messageText\": \"text changed\"}"));
+
+        Assertions.assertEquals("text changed", getMessage(9999).getMessageText());
+        Assertions.assertEquals("text changed", getMessagesFromUser(9999).get(0).getMessageText());
+    }
+
+    /**
+     * Reading a message and the account's messages so they are cached, deleting the message, then reading again.
+     *
+     * Expected Result:
+     *  The message is gone from both reads.
+     */
+    @Test
+    public void deleteInvalidatesCachedMessage() throws IOException, InterruptedException {
+        Assertions.assertNotNull(getMessage(9997));
+        Assertions.assertEquals(1, getMessagesFromUser(9997).size());
+
+        Assertions.assertEquals(200, send("DELETE", "http://localhost:8080/messages/9997", null));
+
+        Assertions.assertNull(getMessage(9997));
+        Assertions.assertEquals(0, getMessagesFromUser(9997).size());
+    }
+
+    /**
+     * Logging in twice with the same account.
+     *
+     * Expected Result:
+     *  The second login is served from the username query cache.
+     */
+    @Test
+    public void repeatedLoginHitsQueryCache() throws IOException, InterruptedException {
+        String credentials = "{\"username\": \"testuser1\", \"password\": \"password\"}";
+        Assertions.assertEquals(200, send("POST", "http://localhost:8080/login", credentials));
+        Assertions.assertEquals(200, send("POST", "http://localhost:8080/login", credentials));
+        Assertions.assertEquals(401, send("POST", "http://localhost:8080/login",
+                "{\"username\": \"testuser1\", \"password\": \"wrong\"}"));
+
+        HttpRequest statsRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/admin/cache"))
+                .build();
+        HttpResponse<String> response = webClient.send(statsRequest, HttpResponse.BodyHandlers.ofString());
+        Map<String, Map<String, Object>> stats = objectMapper.readValue(response.body(),
+                new TypeReference<Map<String, Map<String, Object>>>() {});
+        Assertions.assertTrue(((Number) stats.get("account-by-username").get("hits")).longValue() >= 2);
+    }
+
+    private Message getMessage(int messageId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/messages/" + messageId))
+                .build();
+        String body = webClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        return body.isEmpty() ? null : objectMapper.readValue(body, Message.class);
+    }
+
+    private List<Message> getMessagesFromUser(int accountId) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/accounts/" + accountId + "/messages"))
+                .build();
+        String body = webClient.send(request, HttpResponse.BodyHandlers.ofString()).body();
+        return objectMapper.readValue(body, new TypeReference<List<Message>>() {});
+    }
+
+    private int send(String method, String uri, String json) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .method(method, json == null ? HttpRequest.BodyPublishers.noBody() : HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString()).statusCode();
+    }
+}
@@ -0,0 +1,118 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.service.SingleFlight;
+
+public class SingleFlightTest {
+    ExecutorService callers;
+    SingleFlight<Integer, String> flight;
+
+    /**
+     * Before every test, create a new SingleFlight and a pool of threads to call it from.
+     */
+    @BeforeEach
+    public void setUp() {
+        callers = Executors.newFixedThreadPool(8);
+        flight = new SingleFlight<>();
+    }
+
+    @AfterEach
+    public void tearDown() {
+    	callers.shutdownNow();
+    }
+
+    /**
+     * 8 callers reading the same key at the same generation while the first load is held up.
+     *
+     * Expected Result:
+     *  The load ran once and every caller got its result.
+     */
+    @Test
+    public void concurrentCallersShareOneLoad() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            results.add(callers.submit(() -> flight.get(1, 0, () -> {
+                loads.incrementAndGet();
+                await(release);
+                return "value";
+            })));
+        }
+        // let every caller find the load in flight before it finishes
+        while (flight.getExecutions() + flight.getCoalesced() < 8) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        for (Future<String> result : results) {
+            Assertions.assertEquals("value", result.get(5, TimeUnit.SECONDS));
+        }
+        Assertions.assertEquals(1, loads.get());
+        Assertions.assertEquals(1, flight.getExecutions());
+        Assertions.assertEquals(7, flight.getCoalesced());
+    }
+
+    /**
+     * A load of the old value is in flight at generation 0 when a write moves the data to generation 1,
+     * then another caller reads the key.
+     *
+     * Expected Result:
+     *  The later read runs its own load and gets the new value right away, without waiting for the old load;
+     *  a caller still at generation 0 joins the newer load too.
+     */
+    @Test
+    public void readAfterWriteNeverGetsOldValue() throws Exception {
+        CountDownLatch oldLoadStarted = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Future<String> oldRead = callers.submit(() -> flight.get(1, 0, () -> {
+            oldLoadStarted.countDown();
+            await(release);
+            return "old";
+        }));
+        Assertions.assertTrue(oldLoadStarted.await(5, TimeUnit.SECONDS));
+
+        // the write commits here, bumping the generation
+        CountDownLatch newLoadStarted = new CountDownLatch(1);
+        CountDownLatch releaseNew = new CountDownLatch(1);
+        Future<String> newRead = callers.submit(() -> flight.get(1, 1, () -> {
+            newLoadStarted.countDown();
+            await(releaseNew);
+            return "new";
+        }));
+        Assertions.assertTrue(newLoadStarted.await(5, TimeUnit.SECONDS));
+        Future<String> lateOldRead = callers.submit(() -> flight.get(1, 0, () -> "unexpected load"));
+        while (flight.getCoalesced() < 1) {
+            Thread.sleep(10);
+        }
+        releaseNew.countDown();
+
+        Assertions.assertEquals("new", newRead.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals("new", lateOldRead.get(5, TimeUnit.SECONDS));
+        Assertions.assertFalse(oldRead.isDone());
+        release.countDown();
+        Assertions.assertEquals("old", oldRead.get(5, TimeUnit.SECONDS));
+        Assertions.assertEquals(2, flight.getExecutions());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
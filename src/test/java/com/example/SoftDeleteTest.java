@@ -0,0 +1,109 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalTime;
+import java.util.List;
+
+import javax.persistence.Cache;
+import javax.persistence.EntityManagerFactory;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.example.repository.MessageRepository;
+import com.example.service.DeletedMessagePurger;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SoftDeleteTest {
+	ApplicationContext app;
+    HttpClient webClient = HttpClient.newHttpClient();
+    ObjectMapper objectMapper = new ObjectMapper();
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Sending DELETE localhost:8080/messages/9999 twice, then purging.
+     *
+     * Expected Response:
+     *  The first DELETE returns 1 and the second an empty body, both with status 200, as before.
+     *  The message is gone from every read right away, but its row stays until the purge removes it.
+     *  The purge leaves other messages in the second-level cache.
+     */
+    @Test
+    public void deletedMessageIsHiddenUntilPurged() throws IOException, InterruptedException {
+        start();
+        HttpResponse<String> response = delete("http://localhost:8080/messages/9999");
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals("1", response.body());
+        response = delete("http://localhost:8080/messages/9999");
+        Assertions.assertEquals(200, response.statusCode());
+        Assertions.assertEquals("", response.body());
+
+        Assertions.assertEquals("", get("http://localhost:8080/messages/9999").body());
+        List<Message> all = objectMapper.readValue(get("http://localhost:8080/messages").body(), new TypeReference<List<Message>>(){});
+        Assertions.assertEquals(2, all.size());
+        Assertions.assertEquals("[]", get("http://localhost:8080/accounts/9999/messages").body());
+
+        MessageRepository msgRep = app.getBean(MessageRepository.class);
+        Assertions.assertEquals(List.of(9999), msgRep.findDeletedMessageIds(10));
+
+        Assertions.assertEquals(200, get("http://localhost:8080/messages/9997").statusCode());
+        Cache messageCache = app.getBean(EntityManagerFactory.class).getCache();
+        Assertions.assertTrue(messageCache.contains(Message.class, 9997));
+
+        Assertions.assertEquals(1, app.getBean(DeletedMessagePurger.class).purgeNow());
+        Assertions.assertEquals(List.of(), msgRep.findDeletedMessageIds(10));
+        Assertions.assertEquals(2, msgRep.count());
+        // the rest of the cached messages stay cached
+        Assertions.assertTrue(messageCache.contains(Message.class, 9997));
+    }
+
+    /**
+     * With an off-peak window that doesn't include the current time, the scheduled purge leaves
+     * deleted messages alone.
+     */
+    @Test
+    public void purgeWaitsForOffPeakWindow() throws IOException, InterruptedException {
+        LocalTime now = LocalTime.now();
+        start("--app.soft-delete.purge.window=" + now.plusHours(1).withNano(0) + "-" + now.plusHours(2).withNano(0));
+        Assertions.assertEquals("1", delete("http://localhost:8080/messages/9999").body());
+
+        DeletedMessagePurger purger = app.getBean(DeletedMessagePurger.class);
+        Assertions.assertFalse(purger.isOffPeak(now));
+        Assertions.assertEquals(0, purger.purge());
+        Assertions.assertEquals(List.of(9999), app.getBean(MessageRepository.class).findDeletedMessageIds(10));
+    }
+
+    private void start(String... args) throws InterruptedException {
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    private HttpResponse<String> get(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> delete(String uri) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(uri))
+                .DELETE()
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
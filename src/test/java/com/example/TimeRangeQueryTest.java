@@ -0,0 +1,129 @@
+package com.example;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ApplicationContext;
+
+import com.example.entity.Message;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TimeRangeQueryTest {
+	ApplicationContext app;
+    HttpClient webClient;
+    ObjectMapper objectMapper;
+
+    /**
+     * Before every test, reset the database, restart the app, and create a new webClient and ObjectMapper
+     * for interacting locally on the web.
+     * @throws InterruptedException
+     */
+    @BeforeEach
+    public void setUp() throws InterruptedException {
+        webClient = HttpClient.newHttpClient();
+        objectMapper = new ObjectMapper();
+        String[] args = new String[] {};
+        app = SpringApplication.run(SocialMediaApp.class, args);
+        Thread.sleep(500);
+    }
+
+    @AfterEach
+    public void tearDown() throws InterruptedException {
+    	Thread.sleep(500);
+    	SpringApplication.exit(app);
+    }
+
+    /**
+     * Posting messages at times 1005 down to 1000 for two accounts, then following the pages of
+     * GET localhost:8080/messages?since=1001&until=1005&limit=3 to the end.
+     *
+     * Expected Result:
+     *  The messages posted at 1001 to 1004 (inclusive), oldest first, over pages of 3 and 1.
+     */
+    @Test
+    public void timeRangePagesInTimeOrder() throws IOException, InterruptedException {
+        postMessages();
+
+        List<Long> times = new ArrayList<>();
+        List<Integer> pageSizes = new ArrayList<>();
+        String next = "/messages?since=1001&until=1005&limit=3";
+        while (next != null) {
+            HttpResponse<String> response = get(next);
+            Assertions.assertEquals(200, response.statusCode());
+            List<Message> page = objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+            pageSizes.add(page.size());
+            for (Message msg : page) {
+                times.add(msg.getTimePostedEpoch());
+            }
+            next = response.headers().firstValue("Link")
+                    .map(link -> link.substring(1, link.indexOf('>')))
+                    .orElse(null);
+        }
+
+        Assertions.assertEquals(List.of(3, 1), pageSizes);
+        Assertions.assertEquals(List.of(1001L, 1002L, 1003L, 1004L), times);
+    }
+
+    /**
+     * Posting messages at times 1005 down to 1000 for two accounts, then asking for one account's
+     * messages since 1002 with GET localhost:8080/accounts/9998/messages?since=1002.
+     *
+     * Expected Result:
+     *  Only that account's messages posted at 1002 or later, oldest first.
+     */
+    @Test
+    public void accountTimeRange() throws IOException, InterruptedException {
+        postMessages();
+
+        HttpResponse<String> response = get("/accounts/9998/messages?since=1002");
+        Assertions.assertEquals(200, response.statusCode());
+        List<Message> msgs = objectMapper.readValue(response.body(), new TypeReference<List<Message>>() {});
+        List<Long> times = new ArrayList<>();
+        for (Message msg : msgs) {
+            Assertions.assertEquals(9998, msg.getPostedBy());
+            times.add(msg.getTimePostedEpoch());
+        }
+        Assertions.assertEquals(List.of(1002L, 1004L), times);
+    }
+
+    /**
+     * Sending a time range request with a malformed cursor.
+     *
+     * Expected Result:
+     *  Status Code: 400
+     */
+    @Test
+    public void malformedCursorIsRejected() throws IOException, InterruptedException {
+        Assertions.assertEquals(400, get("/messages?since=0&cursor=abc").statusCode());
+    }
+
+    private void postMessages() throws IOException, InterruptedException {
+        for (long time = 1005; time >= 1000; time--) {
+            int postedBy = time % 2 == 0 ? 9998 : 9999;
+            HttpRequest postRequest = HttpRequest.newBuilder()
+                    .uri(URI.create("http://localhost:8080/messages"))
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"postedBy\":" + postedBy + ",\"messageText\": \"at " + time + "\",\"timePostedEpoch\": " + time + "}"))
+                    .header("Content-Type", "application/json")
+                    .build();
+            webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+        }
+    }
+
+    private HttpResponse<String> get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080" + path))
+                .build();
+        return webClient.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+}
@@ -13,6 +13,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.boot.SpringApplication;
 import org.springframework.context.ApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 import com.example.entity.Account;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -104,4 +105,24 @@ public class UserLoginTest {
         int status = response.statusCode();
         Assertions.assertEquals(401, status, "Expected Status Code 401 - Actual Code was: " + status);
     }
+
+    /**
+     * Sending an http request to POST localhost:8080/login for an account whose password column is null
+     *
+     * Expected Response:
+     *  Status Code: 401
+     */
+    @Test
+    public void loginAccountWithoutPassword() throws IOException, InterruptedException {
+        app.getBean(JdbcTemplate.class).update("insert into account (username, password) values ('nopassword', null)");
+        String json = "{\"username\":\"nopassword\",\"password\":\"password\"}";
+        HttpRequest postRequest = HttpRequest.newBuilder()
+                .uri(URI.create("http://localhost:8080/login"))
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .header("Content-Type", "application/json")
+                .build();
+        HttpResponse<String> response = webClient.send(postRequest, HttpResponse.BodyHandlers.ofString());
+        int status = response.statusCode();
+        Assertions.assertEquals(401, status, "Expected Status Code 401 - Actual Code was: " + status);
+    }
 }
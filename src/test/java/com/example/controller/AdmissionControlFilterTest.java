@@ -0,0 +1,104 @@
+package com.example.controller;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.example.controller.AdmissionControlFilter.Priority;
+
+public class AdmissionControlFilterTest {
+    private static final long MS = 1_000_000L;
+
+    AdmissionControlFilter filter;
+
+    /**
+     * Before every test, create a filter with a 250 ms latency target and backoff window, and a limit
+     * of 10 that may range from 2 to 20.
+     */
+    @BeforeEach
+    public void setUp() {
+        filter = new AdmissionControlFilter(true, 250, 10, 2, 20, 0.5, 250);
+    }
+
+    /**
+     * Expected Result:
+     *  /login and single message reads are HIGH, bulk list reads and search are LOW, everything else is NORMAL.
+     */
+    @Test
+    public void priorities() {
+        Assertions.assertEquals(Priority.HIGH, AdmissionControlFilter.priorityOf("POST", "/login"));
+        Assertions.assertEquals(Priority.HIGH, AdmissionControlFilter.priorityOf("GET", "/messages/9999"));
+        Assertions.assertEquals(Priority.LOW, AdmissionControlFilter.priorityOf("GET", "/messages"));
+        Assertions.assertEquals(Priority.LOW, AdmissionControlFilter.priorityOf("GET", "/messages/search"));
+        Assertions.assertEquals(Priority.LOW, AdmissionControlFilter.priorityOf("GET", "/accounts/9999/messages"));
+        Assertions.assertEquals(Priority.NORMAL, AdmissionControlFilter.priorityOf("GET", "/accounts/9999/messages/count"));
+        Assertions.assertEquals(Priority.NORMAL, AdmissionControlFilter.priorityOf("GET", "/messages/stats"));
+        Assertions.assertEquals(Priority.NORMAL, AdmissionControlFilter.priorityOf("POST", "/messages/import"));
+        Assertions.assertEquals(Priority.NORMAL, AdmissionControlFilter.priorityOf("POST", "/messages"));
+        Assertions.assertEquals(Priority.NORMAL, AdmissionControlFilter.priorityOf("DELETE", "/messages/9999"));
+    }
+
+    /**
+     * Filling the limit of 10 with LOW, then NORMAL, then HIGH requests.
+     *
+     * Expected Result:
+     *  LOW requests are shed once 5 are in flight, NORMAL ones at 8 and HIGH ones only at the full 10.
+     */
+    @Test
+    public void lowPriorityIsShedFirst() {
+        Assertions.assertEquals(5, admitAll(Priority.LOW));
+        Assertions.assertEquals(3, admitAll(Priority.NORMAL));
+        Assertions.assertEquals(2, admitAll(Priority.HIGH));
+        Assertions.assertEquals(10, filter.getInFlight());
+        Assertions.assertFalse(filter.tryAdmit(Priority.LOW));
+    }
+
+    /**
+     * Many slow requests finishing within one backoff window, then more in each of the following windows.
+     *
+     * Expected Result:
+     *  The whole first burst halves the limit once. Each later window halves it once more, down to the minimum.
+     */
+    @Test
+    public void backsOffOncePerWindow() {
+        long now = 1_000 * MS;
+        for (int i = 0; i < 50; i++) {
+            filter.onSample(500 * MS, now + i * MS);
+        }
+        Assertions.assertEquals(5, filter.getLimit());
+
+        filter.onSample(500 * MS, now + 250 * MS);
+        Assertions.assertEquals(2, filter.getLimit());
+        filter.onSample(500 * MS, now + 500 * MS);
+        Assertions.assertEquals(2, filter.getLimit());
+    }
+
+    /**
+     * A long run of fast requests after the limit has backed off.
+     *
+     * Expected Result:
+     *  The limit grows back by about one per limit's worth of requests and settles at the maximum.
+     */
+    @Test
+    public void fastRequestsGrowLimitToMaximum() {
+        filter.onSample(500 * MS, 0);
+        Assertions.assertEquals(5, filter.getLimit());
+
+        for (int i = 0; i < 5; i++) {
+            filter.onSample(10 * MS, i);
+        }
+        Assertions.assertEquals(5, filter.getLimit());
+        for (int i = 0; i < 10_000; i++) {
+            filter.onSample(10 * MS, i);
+        }
+        Assertions.assertEquals(20, filter.getLimit());
+    }
+
+    private int admitAll(Priority priority) {
+        int admitted = 0;
+        while (filter.tryAdmit(priority)) {
+            admitted++;
+        }
+        return admitted;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.controller;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import com.example.entity.Account;
+import com.example.entity.Message;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+public class EntityJsonSerializersTest {
+
+    /**
+     * A message with every field set, including a version, and a message with every field null.
+     *
+     * Expected Result:
+     *  The hand-written serializer writes the same bytes as Jackson's default, in JSON and in CBOR,
+     *  and neither writes the version.
+     */
+    @Test
+    public void messagesMatchDefaultOutput() throws Exception {
+        Message msg = new Message(9999, 9998, "test message 1", 1669947792L);
+        msg.setVersion(3L);
+        assertSameOutput(msg);
+        assertSameOutput(new Message());
+
+        Assertions.assertFalse(new String(custom(new JsonFactory()).writeValueAsBytes(msg)).contains("version"));
+    }
+
+    /**
+     * An account with every field set and an account with every field null.
+     *
+     * Expected Result:
+     *  The hand-written serializer writes the same bytes as Jackson's default, in JSON and in CBOR.
+     */
+    @Test
+    public void accountsMatchDefaultOutput() throws Exception {
+        assertSameOutput(new Account(9999, "testuser1", "password"));
+        assertSameOutput(new Account());
+    }
+
+    private static void assertSameOutput(Object value) throws Exception {
+        for (JsonFactory factory : new JsonFactory[] {new JsonFactory(), new CBORFactory()}) {
+            byte[] expected = new ObjectMapper(factory).writeValueAsBytes(value);
+            byte[] actual = custom(factory).writeValueAsBytes(value);
+            Assertions.assertArrayEquals(expected, actual, factory.getFormatName() + ": " + new String(actual));
+        }
+    }
+
+    private static ObjectMapper custom(JsonFactory factory) {
+        SimpleModule module = new SimpleModule();
+        module.addSerializer(Message.class, new EntityJsonSerializers.MessageSerializer());
+        module.addSerializer(Account.class, new EntityJsonSerializers.AccountSerializer());
+        return new ObjectMapper(factory).registerModule(module);
+    }
+}